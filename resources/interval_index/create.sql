@@ -0,0 +1,46 @@
+-- Optional R*Tree storage mode for the date overlap queries.
+-- Dates are stored as epoch milliseconds, the intervals are kept in days (milliseconds / 86400000).
+-- The triggers keep the intervals in sync with Reservation and LocalTax, whoever writes the rows.
+
+-- Reservations as boxes over (days, accommodation), the departure day is not booked
+CREATE VIRTUAL TABLE IF NOT EXISTS ReservationInterval USING rtree_i32(
+    id,
+    startDay, endDay,
+    minAccommodationId, maxAccommodationId
+);
+
+CREATE TRIGGER IF NOT EXISTS ReservationIntervalInsert AFTER INSERT ON Reservation BEGIN
+    INSERT OR REPLACE INTO ReservationInterval VALUES (NEW.id, NEW.arrivalDate / 86400000, NEW.departureDate / 86400000, NEW.accommodationId, NEW.accommodationId);
+END;
+
+CREATE TRIGGER IF NOT EXISTS ReservationIntervalUpdate AFTER UPDATE OF id, accommodationId, arrivalDate, departureDate ON Reservation BEGIN
+    DELETE FROM ReservationInterval WHERE id = OLD.id;
+    INSERT OR REPLACE INTO ReservationInterval VALUES (NEW.id, NEW.arrivalDate / 86400000, NEW.departureDate / 86400000, NEW.accommodationId, NEW.accommodationId);
+END;
+
+CREATE TRIGGER IF NOT EXISTS ReservationIntervalDelete AFTER DELETE ON Reservation BEGIN
+    DELETE FROM ReservationInterval WHERE id = OLD.id;
+END;
+
+-- Local taxes as closed intervals of days, the end date is the last day the tax is in force
+CREATE VIRTUAL TABLE IF NOT EXISTS LocalTaxInterval USING rtree_i32(
+    id,
+    startDay, endDay
+);
+
+CREATE TRIGGER IF NOT EXISTS LocalTaxIntervalInsert AFTER INSERT ON LocalTax BEGIN
+    INSERT OR REPLACE INTO LocalTaxInterval VALUES (NEW.id, NEW.startDate / 86400000, NEW.endDate / 86400000);
+END;
+
+CREATE TRIGGER IF NOT EXISTS LocalTaxIntervalUpdate AFTER UPDATE OF id, startDate, endDate ON LocalTax BEGIN
+    DELETE FROM LocalTaxInterval WHERE id = OLD.id;
+    INSERT OR REPLACE INTO LocalTaxInterval VALUES (NEW.id, NEW.startDate / 86400000, NEW.endDate / 86400000);
+END;
+
+CREATE TRIGGER IF NOT EXISTS LocalTaxIntervalDelete AFTER DELETE ON LocalTax BEGIN
+    DELETE FROM LocalTaxInterval WHERE id = OLD.id;
+END;
+
+-- Index the rows that already exist
+INSERT OR REPLACE INTO ReservationInterval SELECT id, arrivalDate / 86400000, departureDate / 86400000, accommodationId, accommodationId FROM Reservation;
+INSERT OR REPLACE INTO LocalTaxInterval SELECT id, startDate / 86400000, endDate / 86400000 FROM LocalTax;
@@ -0,0 +1,11 @@
+-- Leave the R*Tree storage mode, the overlap queries go back to the B-tree indexes
+
+DROP TRIGGER IF EXISTS ReservationIntervalInsert;
+DROP TRIGGER IF EXISTS ReservationIntervalUpdate;
+DROP TRIGGER IF EXISTS ReservationIntervalDelete;
+DROP TABLE IF EXISTS ReservationInterval;
+
+DROP TRIGGER IF EXISTS LocalTaxIntervalInsert;
+DROP TRIGGER IF EXISTS LocalTaxIntervalUpdate;
+DROP TRIGGER IF EXISTS LocalTaxIntervalDelete;
+DROP TABLE IF EXISTS LocalTaxInterval;
@@ -1,11 +1,4 @@
--- This scheme represents the database structure
-
--- Drop tables that may already exist
-DROP TABLE IF EXISTS `Apartment`;
-DROP TABLE IF EXISTS `Room`;
-DROP TABLE IF EXISTS `Customer`;
-DROP TABLE IF EXISTS `Reservation`;
-DROP TABLE IF EXISTS `LocalTax`;
+-- Initial database structure
 
 -- Create the tables
 CREATE TABLE IF NOT EXISTS Apartment (
@@ -60,3 +53,11 @@ CREATE TABLE IF NOT EXISTS LocalTax (
     endDate             DATE NOT NULL
 );
 
+-- Next free id of each sequence handed out by IDGenerator
+CREATE TABLE IF NOT EXISTS Sequence (
+    name                TEXT PRIMARY KEY,
+    nextId              INT NOT NULL
+);
+
+-- Serve the overlap lookups of the availability searches with a range scan
+CREATE INDEX IF NOT EXISTS ReservationAccommodationPeriod ON Reservation(accommodationId, arrivalDate, departureDate);
@@ -0,0 +1,7 @@
+-- Indexes for the hot queries
+
+-- Reservations of a customer, used when the customer is deleted
+CREATE INDEX IF NOT EXISTS ReservationCustomer ON Reservation(customerId);
+
+-- Local taxes in force for a target over a period
+CREATE INDEX IF NOT EXISTS LocalTaxTargetPeriod ON LocalTax(target, startDate, endDate);
@@ -0,0 +1,7 @@
+-- Confirmation code of the reservations imported from Airbnb, NULL for the others
+
+ALTER TABLE Reservation ADD COLUMN confirmationCode TEXT;
+
+-- Imports look up the reservations of the accommodation they import into by code, and a code identifies
+-- a single reservation of the accommodation. SQLite lets several rows have a NULL code.
+CREATE UNIQUE INDEX IF NOT EXISTS ReservationConfirmationCode ON Reservation(accommodationId, confirmationCode);
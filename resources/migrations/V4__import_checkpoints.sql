@@ -0,0 +1,15 @@
+-- Progress of the imports, one row for each source of exports
+
+CREATE TABLE IF NOT EXISTS ImportCheckpoint (
+    source                  TEXT PRIMARY KEY,
+    -- length and SHA-256 of the part of the taxes file that has been imported
+    taxesLength             INTEGER NOT NULL,
+    taxesHash               TEXT NOT NULL,
+    -- length and SHA-256 of the reservations file it was joined with
+    reservationsLength      INTEGER NOT NULL,
+    reservationsHash        TEXT NOT NULL,
+    -- last record of the taxes file that has been imported
+    lastConfirmationCode    TEXT,
+    lastArrivalDate         DATE,
+    completed               BOOLEAN NOT NULL
+);
@@ -0,0 +1,6 @@
+-- Normalized name and phone of the customers created by imports, NULL for the ones entered by hand
+
+ALTER TABLE Customer ADD COLUMN identityKey TEXT;
+
+-- A guest is created once whatever the number of reservations. SQLite lets several rows have a NULL key.
+CREATE UNIQUE INDEX IF NOT EXISTS CustomerIdentity ON Customer(identityKey);
@@ -0,0 +1,19 @@
+-- Totals of the city tax declarations, one row for each accommodation, month and guest target.
+-- Kept up to date with the reservations by AccountingHandler, they can be rebuilt from them at any time.
+
+CREATE TABLE IF NOT EXISTS MonthlyRollup (
+    accommodationId         INT NOT NULL,
+    year                    INT NOT NULL,
+    month                   INT NOT NULL,
+    target                  TEXT NOT NULL,
+    -- nights and guests that pay the city tax in the month
+    nights                  INT NOT NULL,
+    guests                  INT NOT NULL,
+    -- share of the month in the city tax declared with the reservations and in their price,
+    -- both counted in the adults row, in cents
+    declaredCityTaxCents    INTEGER NOT NULL,
+    revenueCents            INTEGER NOT NULL,
+    -- city tax evaluated from the local taxes, in cents
+    evaluatedCityTaxCents   INTEGER NOT NULL,
+    PRIMARY KEY (accommodationId, year, month, target)
+);
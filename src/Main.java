@@ -4,6 +4,7 @@ import domainModel.*;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.stream.Stream;
 
 public class Main {
 
@@ -39,9 +40,8 @@ public class Main {
         // reservationHandler.importFromAirbnb(apartmentPointer, "/home/leonardo/Downloads/test_tax.csv", "/home/leonardo/Downloads/test_res.csv");
 
         // Print all reservations
-        ArrayList<Reservation> reservations = reservationHandler.getAllReservations();
-        for (Reservation reservation : reservations) {
-            reservation.printReservation();
+        try (Stream<Reservation> reservations = reservationHandler.streamAllReservations()) {
+            reservations.forEach(Reservation::printReservation);
         }
 
         // Print all customers
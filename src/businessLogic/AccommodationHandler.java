@@ -6,7 +6,10 @@ import domainModel.Accommodation;
 import domainModel.Apartment;
 import domainModel.Room;
 
+import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 public class AccommodationHandler {
     // This method helps the user create a new accommodation, passing in input whether it is a room or an apartment
@@ -108,6 +111,32 @@ public class AccommodationHandler {
         return accommodation;
     }
 
+    // Read the mapping from the names of the Airbnb listings to the accommodations, used to route the reservations
+    // of an export. The file is a CSV with the columns "Annuncio" and "Accommodation ID", one row for each listing.
+    public HashMap<String, Accommodation> getListingAccommodations(String mappingFilePath) throws Exception {
+        HashMap<String, Accommodation> listings = new HashMap<>();
+        MappedCsvReader reader;
+        try {
+            reader = new MappedCsvReader(mappingFilePath, List.of("Annuncio", "Accommodation ID"));
+        } catch (FileNotFoundException e) {
+            throw new Exception("ERROR: The file " + mappingFilePath + " does not exist.", e);
+        }
+        try (reader) {
+            if (!reader.hasAllColumns()) {
+                throw new Exception("ERROR: The file " + mappingFilePath + " does not contain all the required columns.");
+            }
+            MappedCsvReader.Row row;
+            while ((row = reader.next()) != null) {
+                Accommodation accommodation = getAccommodationById(row.getInt(1));
+                if (accommodation == null) {
+                    throw new Exception("ERROR: The listing " + row.getString(0) + " is mapped to an accommodation that does not exist.");
+                }
+                listings.put(row.getString(0), accommodation);
+            }
+        }
+        return listings;
+    }
+
     public Apartment addApartmentDetails(Accommodation accommodation, int numberOfRooms, int numberOfBathrooms, int numberOfBedrooms, int numberOfBeds) {
         if (accommodation == null) {
             System.err.println("ERROR: Could not get apartment.");
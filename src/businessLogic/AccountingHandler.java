@@ -1,29 +1,65 @@
 package businessLogic;
 
 // Import Apache Commons for managing CSV files
+import dao.Database;
 import dao.ReservationDAO;
 import dao.SQLiteLocalTaxDAO;
 import dao.SQLiteReservationDAO;
 import domainModel.Accommodation;
 import domainModel.Reservation;
 import domainModel.LocalTax;
+import domainModel.Money;
 import dao.LocalTaxDAO;
+import dao.MonthlyRollupDAO;
+import dao.SQLiteMonthlyRollupDAO;
+import domainModel.MonthlyRollup;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 
 import java.io.FileWriter;
 import java.io.IOException;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class AccountingHandler {
     private final ReservationHandler reservationHandler;
     private final LocalTaxDAO localTaxDAO = new SQLiteLocalTaxDAO();
+    private final ReservationDAO reservationDAO = new SQLiteReservationDAO();
+    private final MonthlyRollupDAO monthlyRollupDAO = new SQLiteMonthlyRollupDAO();
+    // The local taxes of each target, loaded once and replaced as a whole when they change,
+    // so that evaluating a reservation does not query the database
+    private final AtomicReference<Map<String, LocalTaxTimeline>> localTaxTimelines = new AtomicReference<>();
 
     // This class is a singleton
     private static AccountingHandler instance = null;
     private AccountingHandler(ReservationHandler reservationHandler) {
         this.reservationHandler = reservationHandler;
+        // Loaded again on the next evaluation after a rollback or a change of database
+        Database.addCacheInvalidationListener(() -> localTaxTimelines.set(null));
+        // The monthly rollups follow the reservations
+        reservationHandler.addReservationListener(new ReservationHandler.ReservationListener() {
+            @Override
+            public void added(Reservation reservation) throws Exception {
+                updateRollups(reservation, false);
+            }
+
+            @Override
+            public void removed(Reservation reservation) throws Exception {
+                updateRollups(reservation, true);
+            }
+        });
     }
     public static AccountingHandler getInstance(ReservationHandler reservationHandler) {
         if (instance == null) {
@@ -55,84 +91,356 @@ public class AccountingHandler {
             return false;
         }
         LocalTax localTax = new LocalTax(name, amount, target, daysThreshold, startDate, endDate);
-        localTaxDAO.insert(localTax);
+        Database.inTransaction(() -> {
+            Map<String, LocalTaxTimeline> previous = getLocalTaxTimelines();
+            localTaxDAO.insert(localTax);
+            // The taxed nights and the evaluated amounts of the rollups depend on the local taxes
+            updateRollups(previous, reloadLocalTaxes(), localTax);
+            return null;
+        });
         return true;
     }
 
     public boolean deleteLocalTax(int id) throws Exception {
-        return localTaxDAO.delete(id);
+        return Database.inTransaction(() -> {
+            LocalTax localTax = localTaxDAO.get(id);
+            Map<String, LocalTaxTimeline> previous = getLocalTaxTimelines();
+            if (localTax == null || !localTaxDAO.delete(id)) {
+                return false;
+            }
+            updateRollups(previous, reloadLocalTaxes(), localTax);
+            return true;
+        });
     }
 
-    public void evaluateLocalTaxes(Reservation reservation) throws Exception {
-        // Get the number of nights that the apartment was booked in the given month and year
-        LocalDate start = reservation.getArrivalDate();
-        LocalDate end = reservation.getDepartureDate();
-        // Get the local taxes for the given period
-        ArrayList<LocalTax> adultsLocalTaxes = localTaxDAO.getLocalTaxesByTarget("adults", start, end);
-        ArrayList<LocalTax> childrenLocalTaxes = localTaxDAO.getLocalTaxesByTarget("children", start, end);
-        ArrayList<LocalTax> infantsLocalTaxes = localTaxDAO.getLocalTaxesByTarget("infants", start, end);
-
-        // Evaluate the local taxes for the given period
-        // Evaluate the various amounts to pay according to the possible changes in the local taxes by
-        // determining how many days of each local tax are in the given period
-        double adultsAmount = 0;
-        double childrenAmount = 0;
-        double infantsAmount = 0;
-
-        for (LocalTax localTax : adultsLocalTaxes) {
-            // Get the minimum between the end date of the local tax and the departure date
-            LocalDate localTaxEndDate = localTax.getEndDate().isBefore(end) ? localTax.getEndDate().plusDays(1) : end;
-            // Get the maximum between the start date of the local tax and the arrival date
-            LocalDate localTaxStartDate = localTax.getStartDate().isAfter(start) ? localTax.getStartDate() : start;
-
-            long delta = (localTaxEndDate.toEpochDay() - localTaxStartDate.toEpochDay());
-
-            if (delta > localTax.getDaysThreshold()) {
-                delta = localTax.getDaysThreshold();
+    // Build the timelines from the table and swap them in. Evaluations running meanwhile keep using the
+    // timelines they already hold.
+    private synchronized Map<String, LocalTaxTimeline> reloadLocalTaxes() throws Exception {
+        Map<String, LocalTaxTimeline> timelines = LocalTaxTimeline.build(localTaxDAO.getAll());
+        localTaxTimelines.set(timelines);
+        return timelines;
+    }
+
+    // The timelines of all targets, loaded from the database the first time they are needed
+    private Map<String, LocalTaxTimeline> getLocalTaxTimelines() throws Exception {
+        Map<String, LocalTaxTimeline> timelines = localTaxTimelines.get();
+        if (timelines == null) {
+            timelines = LocalTaxTimeline.build(localTaxDAO.getAll());
+            // A reload that ran meanwhile has read newer data, keep its timelines
+            if (!localTaxTimelines.compareAndSet(null, timelines)) {
+                Map<String, LocalTaxTimeline> reloaded = localTaxTimelines.get();
+                timelines = reloaded != null ? reloaded : timelines;
             }
+        }
+        return timelines;
+    }
+
+    private static ArrayList<LocalTax> getLocalTaxes(Map<String, LocalTaxTimeline> timelines, String target, LocalDate startDate, LocalDate endDate) {
+        LocalTaxTimeline timeline = timelines.get(target);
+        return timeline == null ? new ArrayList<>() : timeline.getLocalTaxes(startDate, endDate);
+    }
+
+    // Cents of local taxes due for each guest of the target arrived on arrivalDay, for the nights from fromDay
+    // included to toDay excluded
+    private static long getLocalTaxCents(Map<String, LocalTaxTimeline> timelines, String target, long arrivalDay, long fromDay, long toDay) {
+        LocalTaxTimeline timeline = timelines.get(target);
+        return timeline == null ? 0 : timeline.getCents(arrivalDay, fromDay, toDay);
+    }
+
+    // City tax due for the whole stay of a reservation, each local tax is due for the nights up to its days threshold
+    private static long evaluateCityTaxCents(Map<String, LocalTaxTimeline> timelines, Reservation reservation) {
+        long arrivalDay = reservation.getArrivalDate().toEpochDay();
+        long departureDay = reservation.getDepartureDate().toEpochDay();
+        long adultsCents = getLocalTaxCents(timelines, "adults", arrivalDay, arrivalDay, departureDay);
+        long childrenCents = getLocalTaxCents(timelines, "children", arrivalDay, arrivalDay, departureDay);
+        long infantsCents = getLocalTaxCents(timelines, "infants", arrivalDay, arrivalDay, departureDay);
+
+        // Manually calculate the total amount to pay for the given month and year
+        int numberOfAdults = reservation.getNumberOfGuests() - reservation.getNumberOfChildren() - reservation.getNumberOfInfants();
+        long totalCents = (adultsCents * numberOfAdults) + (childrenCents * reservation.getNumberOfChildren()) + (infantsCents * reservation.getNumberOfInfants());
+        return totalCents;
+    }
+
+    public void evaluateLocalTaxes(Reservation reservation) throws Exception {
+        Reservation previous = reservation.copy();
+        // Save in the database the amount to pay for the given local taxes
+        reservation.setCityTaxCents(evaluateCityTaxCents(getLocalTaxTimelines(), reservation));
+        Database.inTransaction(() -> {
+            reservationDAO.update(reservation);
+            reservationHandler.reservationChanged(previous, reservation);
+            return null;
+        });
+    }
 
-            adultsAmount += localTax.getAmount() * delta;
+    // Evaluate the local taxes of many reservations, for example after the rates changed. The amounts are
+    // computed in memory and only the ones that changed are written, in a single transaction.
+    // Returns the number of reservations whose amount changed.
+    public int evaluateLocalTaxes(Collection<Reservation> reservations) throws Exception {
+        Map<String, LocalTaxTimeline> timelines = getLocalTaxTimelines();
+        ArrayList<Reservation> changed = new ArrayList<>();
+        ArrayList<MonthlyRollup> rollups = new ArrayList<>();
+        for (Reservation reservation : reservations) {
+            long cityTaxCents = evaluateCityTaxCents(timelines, reservation);
+            if (cityTaxCents != reservation.getCityTaxCents()) {
+                rollups.addAll(getRollups(timelines, reservation, true));
+                reservation.setCityTaxCents(cityTaxCents);
+                rollups.addAll(getRollups(timelines, reservation, false));
+                changed.add(reservation);
+            }
         }
+        Database.inTransaction(() -> {
+            reservationDAO.updateAll(changed);
+            monthlyRollupDAO.add(rollups);
+            return null;
+        });
+        return changed.size();
+    }
 
-        for (LocalTax localTax : childrenLocalTaxes) {
-            // Get the minimum between the end date of the local tax and the departure date
-            LocalDate localTaxEndDate = localTax.getEndDate().isBefore(end) ? localTax.getEndDate().plusDays(1) : end;
-            // Get the maximum between the start date of the local tax and the arrival date
-            LocalDate localTaxStartDate = localTax.getStartDate().isAfter(start) ? localTax.getStartDate() : start;
+    // Evaluate again the local taxes of all the reservations with at least one night between startDate
+    // included and endDate excluded. Returns the number of reservations whose amount changed, -1 on error.
+    public int evaluateAll(LocalDate startDate, LocalDate endDate) throws Exception {
+        if (!startDate.isBefore(endDate)) {
+            System.err.println("ERROR: Start date must be before end date");
+            return -1;
+        }
+        Stream<Reservation> reservations = reservationHandler.streamPeriodReservations(startDate, endDate);
+        if (reservations == null) {
+            System.err.println("ERROR: Could not read the reservations.");
+            return -1;
+        }
+        // Read them all before writing, the stream holds a connection open on the table
+        ArrayList<Reservation> periodReservations;
+        try (reservations) {
+            periodReservations = reservations.collect(Collectors.toCollection(ArrayList::new));
+        }
+        return evaluateLocalTaxes(periodReservations);
+    }
 
-            long delta = (localTaxEndDate.toEpochDay() - localTaxStartDate.toEpochDay());
+    // Number of nights of the month in which the guests pay the local tax, zero or less if they pay none
+    private static long getTaxedNights(LocalTax localTax, LocalDate start, LocalDate end, LocalDate currentMonth, LocalDate arrivalDate) {
+        // Get the minimum between the end date of the local tax and the departure date
+        LocalDate localTaxEndDate = localTax.getEndDate().isBefore(end) ? localTax.getEndDate().plusDays(1) : end;
+        // Get the maximum between the start date of the local tax and the arrival date
+        LocalDate localTaxStartDate = localTax.getStartDate().isAfter(start) ? localTax.getStartDate() : start;
+        // localTaxEndDate and localTaxStartDate should be both in the given month and year
+        localTaxEndDate = localTaxEndDate.isBefore(currentMonth.plusMonths(1)) ? localTaxEndDate : currentMonth.plusMonths(1);
+        localTaxStartDate = localTaxStartDate.isAfter(currentMonth.minusDays(1)) ? localTaxStartDate : currentMonth;
+        // Get the number of days between the start date and the end date of the local tax
+        long delta = (localTaxEndDate.toEpochDay() - localTaxStartDate.toEpochDay());
+
+        // Get the number of days between currentMonth and arrivalDate
+        long daysDifference = (currentMonth.toEpochDay() - arrivalDate.toEpochDay());
+        return Math.min(Math.min(delta, localTax.getDaysThreshold()), (localTax.getDaysThreshold() - (int) daysDifference));
+    }
 
-            if (delta > localTax.getDaysThreshold()) {
-                delta = localTax.getDaysThreshold();
+    // The first of the local taxes that the guests pay in the month, null if they pay none.
+    // If there are multiple local taxes for the same target, the guests are counted only once.
+    private static LocalTax getFirstTaxed(ArrayList<LocalTax> localTaxes, LocalDate start, LocalDate end, LocalDate currentMonth, LocalDate arrivalDate) {
+        for (LocalTax localTax : localTaxes) {
+            if (getTaxedNights(localTax, start, end, currentMonth, arrivalDate) > 0) {
+                return localTax;
             }
+        }
+        return null;
+    }
 
-            childrenAmount += localTax.getAmount() * delta;
+    // Totals of a declaration for one month
+    private static final class DeclarationTotals {
+        private final LocalDate month;
+        // Get the total number of nights that the apartment was booked for the month
+        private int totalNights = 0;
+        // Get the total number of guests that stayed in the apartment for the month
+        private int totalGuests = 0;
+        // Get the total amount of money that Airbnb declared to pay for the city tax for the month
+        private long totalCityTaxCents = 0;
+        private long totalCentsEvaluated = 0;
+
+        private DeclarationTotals(LocalDate month) {
+            this.month = month;
         }
 
-        for (LocalTax localTax : infantsLocalTaxes) {
-            // Get the minimum between the end date of the local tax and the departure date
-            LocalDate localTaxEndDate = localTax.getEndDate().isBefore(end) ? localTax.getEndDate().plusDays(1) : end;
-            // Get the maximum between the start date of the local tax and the arrival date
-            LocalDate localTaxStartDate = localTax.getStartDate().isAfter(start) ? localTax.getStartDate() : start;
+        private double getTotalCityTaxAmount() {
+            return Money.toAmount(totalCityTaxCents);
+        }
 
-            long delta = (localTaxEndDate.toEpochDay() - localTaxStartDate.toEpochDay());
+        private double getTotalAmountEvaluated() {
+            return Money.toAmount(totalCentsEvaluated);
+        }
 
-            if (delta > localTax.getDaysThreshold()) {
-                delta = localTax.getDaysThreshold();
-            }
+        // Both amounts are exact sums of cents, so they can be compared without a tolerance
+        private boolean isMismatch() {
+            return totalCentsEvaluated != totalCityTaxCents;
+        }
 
-            infantsAmount += localTax.getAmount() * delta;
+        private void add(MonthlyRollup rollup) {
+            totalNights += rollup.getNights();
+            totalGuests += rollup.getGuests();
+            totalCityTaxCents += rollup.getDeclaredCityTaxCents();
+            totalCentsEvaluated += rollup.getEvaluatedCityTaxCents();
         }
 
-        // Manually calculate the total amount to pay for the given month and year
+        private void add(DeclarationTotals totals) {
+            totalNights += totals.totalNights;
+            totalGuests += totals.totalGuests;
+            totalCityTaxCents += totals.totalCityTaxCents;
+            totalCentsEvaluated += totals.totalCentsEvaluated;
+        }
+    }
+
+    // Add the nights that the reservation spends in the month of the totals
+    private static void declare(DeclarationTotals totals, Map<String, LocalTaxTimeline> timelines, Reservation reservation) {
+        for (MonthlyRollup rollup : getMonthRollups(timelines, reservation, totals.month, true)) {
+            totals.add(rollup);
+        }
+    }
+
+    // The contribution of the reservation to the declaration of a month, a rollup for each target. The city tax
+    // declared with the reservation and its price are counted in the adults rollup.
+    private static MonthlyRollup[] getMonthRollups(Map<String, LocalTaxTimeline> timelines, Reservation reservation, LocalDate currentMonth, boolean warn) {
+        // Get the number of nights that the apartment was booked in the given month and year
+        LocalDate arrivalDate = reservation.getArrivalDate();
+        LocalDate departureDate = reservation.getDepartureDate();
+        // Get the minimum between the departure date and the last day of the month
+        LocalDate end = departureDate.isBefore(currentMonth.plusMonths(1)) ? departureDate : currentMonth.plusMonths(1);
+        // Get the maximum between the arrival date and the first day of the month
+        LocalDate start = arrivalDate.isAfter(currentMonth.minusDays(1)) ? arrivalDate : currentMonth;
         int numberOfAdults = reservation.getNumberOfGuests() - reservation.getNumberOfChildren() - reservation.getNumberOfInfants();
-        double totalAmountEvaluated = (adultsAmount * numberOfAdults) + (childrenAmount * reservation.getNumberOfChildren()) + (infantsAmount * reservation.getNumberOfInfants());
+        int accommodationId = reservation.getAccommodation().getId();
+        int year = currentMonth.getYear();
+        int month = currentMonth.getMonthValue();
+
+        // Evaluate the local taxes of the nights in the month, each one is due up to its days threshold
+        long arrivalDay = arrivalDate.toEpochDay();
+        long startDay = start.toEpochDay();
+        long endDay = end.toEpochDay();
+
+        // Note that the guests are counted only if the reservation is eligible for the city tax
+        int adultsNights = 0;
+        int adultsGuests = 0;
+        long declaredCityTaxCents = 0;
+        LocalTax adultsLocalTax = getFirstTaxed(getLocalTaxes(timelines, "adults", start, end), start, end, currentMonth, arrivalDate);
+        if (adultsLocalTax != null) {
+            adultsNights = (int) getTaxedNights(adultsLocalTax, start, end, currentMonth, arrivalDate) * numberOfAdults;
+            adultsGuests = numberOfAdults;
+            // The city tax amount harvested collecting data from the database is counted only once here
+            // Only get the city tax percentage related to the current month and year
+            int totalLength = Math.min((int) (reservation.getDepartureDate().toEpochDay() - reservation.getArrivalDate().toEpochDay()), adultsLocalTax.getDaysThreshold());
+            long daysDifference = (currentMonth.toEpochDay() - arrivalDate.toEpochDay());
+            if (daysDifference > 0 && daysDifference < adultsLocalTax.getDaysThreshold()) {
+                int daysToPay = totalLength - (int)daysDifference;
+                // What is left once the nights before the month are declared, so that the shares of the months
+                // add up to the whole amount
+                declaredCityTaxCents = reservation.getCityTaxCents() - Money.share(reservation.getCityTaxCents(), totalLength - daysToPay, totalLength);
+            } else {
+                boolean check = departureDate.isAfter(currentMonth.plusMonths(1));
+                if (check && daysDifference < adultsLocalTax.getDaysThreshold()) {
+                    daysDifference = currentMonth.plusMonths(1).toEpochDay() - arrivalDate.toEpochDay();
+                    declaredCityTaxCents = Money.share(reservation.getCityTaxCents(), daysDifference, totalLength);
+                } else
+                    declaredCityTaxCents = reservation.getCityTaxCents();
+            }
+            // If one or more local taxes expire or start in the middle of the reservation, warn the user
+            if (warn && (adultsLocalTax.getStartDate().isAfter(arrivalDate) || adultsLocalTax.getEndDate().isBefore(departureDate))) {
+                System.err.println("WARNING: One or more local taxes expire or start in the middle of a reservation.");
+            }
+        }
+        // Share of the price for the nights of the stay in the month, as the difference of the shares of the nights
+        // up to its end and up to its start so that the shares of the months add up to the whole price
+        long lengthOfStay = departureDate.toEpochDay() - arrivalDay;
+        long revenueCents = Money.share(reservation.getPriceCents(), endDay - arrivalDay, lengthOfStay) - Money.share(reservation.getPriceCents(), startDay - arrivalDay, lengthOfStay);
+        MonthlyRollup adults = new MonthlyRollup(accommodationId, year, month, "adults", adultsNights, adultsGuests, declaredCityTaxCents, revenueCents, getLocalTaxCents(timelines, "adults", arrivalDay, startDay, endDay) * numberOfAdults);
+
+        LocalTax childrenLocalTax = getFirstTaxed(getLocalTaxes(timelines, "children", start, end), start, end, currentMonth, arrivalDate);
+        int childrenNights = childrenLocalTax == null ? 0 : (int) getTaxedNights(childrenLocalTax, start, end, currentMonth, arrivalDate) * reservation.getNumberOfChildren();
+        int childrenGuests = childrenLocalTax == null ? 0 : reservation.getNumberOfChildren();
+        MonthlyRollup children = new MonthlyRollup(accommodationId, year, month, "children", childrenNights, childrenGuests, 0, 0, getLocalTaxCents(timelines, "children", arrivalDay, startDay, endDay) * reservation.getNumberOfChildren());
+
+        LocalTax infantsLocalTax = getFirstTaxed(getLocalTaxes(timelines, "infants", start, end), start, end, currentMonth, arrivalDate);
+        int infantsNights = infantsLocalTax == null ? 0 : (int) getTaxedNights(infantsLocalTax, start, end, currentMonth, arrivalDate) * reservation.getNumberOfInfants();
+        int infantsGuests = infantsLocalTax == null ? 0 : reservation.getNumberOfInfants();
+        MonthlyRollup infants = new MonthlyRollup(accommodationId, year, month, "infants", infantsNights, infantsGuests, 0, 0, getLocalTaxCents(timelines, "infants", arrivalDay, startDay, endDay) * reservation.getNumberOfInfants());
+
+        return new MonthlyRollup[]{adults, children, infants};
+    }
 
-        // Save in the database the amount to pay for the given local taxes
-        reservation.setCityTaxAmount(totalAmountEvaluated);
-        ReservationDAO reservationDAO = new SQLiteReservationDAO();
-        reservationDAO.update(reservation);
+    // The contribution of the reservation to the rollups of every month it has a night in, negated to remove it.
+    // The rollups that would not change anything are left out.
+    private static ArrayList<MonthlyRollup> getRollups(Map<String, LocalTaxTimeline> timelines, Reservation reservation, boolean removed) {
+        ArrayList<MonthlyRollup> rollups = new ArrayList<>();
+        LocalDate currentMonth = reservation.getArrivalDate().withDayOfMonth(1);
+        while (currentMonth.isBefore(reservation.getDepartureDate())) {
+            for (MonthlyRollup rollup : getMonthRollups(timelines, reservation, currentMonth, false)) {
+                if (!isEmpty(rollup)) {
+                    rollups.add(removed ? rollup.negate() : rollup);
+                }
+            }
+            currentMonth = currentMonth.plusMonths(1);
+        }
+        return rollups;
+    }
 
+    private static boolean isEmpty(MonthlyRollup rollup) {
+        return rollup.getNights() == 0 && rollup.getGuests() == 0 && rollup.getDeclaredCityTaxCents() == 0 && rollup.getRevenueCents() == 0 && rollup.getEvaluatedCityTaxCents() == 0;
+    }
+
+    private static String getKey(MonthlyRollup rollup) {
+        return rollup.getAccommodationId() + "/" + rollup.getYear() + "/" + rollup.getMonth() + "/" + rollup.getTarget();
+    }
+
+    // Keep the rollups up to date with a reservation that was added or removed, in the transaction of the write
+    private void updateRollups(Reservation reservation, boolean removed) throws Exception {
+        monthlyRollupDAO.add(getRollups(getLocalTaxTimelines(), reservation, removed));
+    }
+
+    // Keep the rollups up to date with a local tax that was added or removed, in the transaction of the write.
+    // Only the reservations with a night in the period of the tax are affected: their contribution with the
+    // previous local taxes is replaced with the one with the current local taxes.
+    private void updateRollups(Map<String, LocalTaxTimeline> previous, Map<String, LocalTaxTimeline> timelines, LocalTax localTax) throws Exception {
+        HashMap<String, MonthlyRollup> rollups = new HashMap<>();
+        // The end date of a local tax is its last taxed day
+        Stream<Reservation> reservations = reservationHandler.streamPeriodReservations(localTax.getStartDate(), localTax.getEndDate().plusDays(1));
+        if (reservations == null) {
+            throw new Exception("ERROR: Could not read the reservations.");
+        }
+        try (reservations) {
+            Iterator<Reservation> iterator = reservations.iterator();
+            while (iterator.hasNext()) {
+                Reservation reservation = iterator.next();
+                for (MonthlyRollup rollup : getRollups(previous, reservation, true)) {
+                    rollups.merge(getKey(rollup), rollup, MonthlyRollup::plus);
+                }
+                for (MonthlyRollup rollup : getRollups(timelines, reservation, false)) {
+                    rollups.merge(getKey(rollup), rollup, MonthlyRollup::plus);
+                }
+            }
+        }
+        // The months out of the period of the tax cancel out
+        rollups.values().removeIf(AccountingHandler::isEmpty);
+        monthlyRollupDAO.add(rollups.values());
+    }
+
+    // Compute the rollups of all the reservations again, a maintenance step to repair them.
+    // Returns the number of rollups written.
+    public int rebuildMonthlyRollups() throws Exception {
+        return Database.inTransaction(() -> {
+            Map<String, LocalTaxTimeline> timelines = getLocalTaxTimelines();
+            HashMap<String, MonthlyRollup> rollups = new HashMap<>();
+            Stream<Reservation> reservations = reservationHandler.streamAllReservations();
+            if (reservations == null) {
+                throw new Exception("ERROR: Could not read the reservations.");
+            }
+            try (reservations) {
+                Iterator<Reservation> iterator = reservations.iterator();
+                while (iterator.hasNext()) {
+                    for (MonthlyRollup rollup : getRollups(timelines, iterator.next(), false)) {
+                        rollups.merge(getKey(rollup), rollup, MonthlyRollup::plus);
+                    }
+                }
+            }
+            monthlyRollupDAO.deleteAll();
+            monthlyRollupDAO.add(rollups.values());
+            return rollups.size();
+        });
     }
 
     // Evaluate the city tax for a given month and a given apartment
@@ -146,174 +454,274 @@ public class AccountingHandler {
         // Create a CSV file for the given month and year
         String fileName = "cityTax_ID_" + accommodation.getId() + "_for_" + month + "_" + year + ".csv";
 
-        // Get the reservations for the given month and year for the given apartment
-        ArrayList<Reservation> reservations = reservationHandler.getAccommodationMonthReservations(accommodation, month, year);
+        // Get the reservations for the given month and year for the given apartment.
+        // They are streamed from the database, so the declaration runs in constant memory however many there are.
+        Stream<Reservation> reservations = reservationHandler.streamAccommodationMonthReservations(accommodation, month, year);
+        if (reservations == null) {
+            System.err.println("ERROR: Could not read the reservations.");
+            return false;
+        }
+        Map<String, LocalTaxTimeline> timelines = getLocalTaxTimelines();
 
-        // Print all the collected reservations
+        DeclarationTotals totals = new DeclarationTotals(LocalDate.of(year, month, 1));
+        // Print the reservations while they are collected
         System.out.println("Reservations for the given month and year:");
-        for (Reservation reservation : reservations) {
-            reservation.printReservation();
+        try (reservations) {
+            Iterator<Reservation> iterator = reservations.iterator();
+            while (iterator.hasNext()) {
+                Reservation reservation = iterator.next();
+                reservation.printReservation();
+                declare(totals, timelines, reservation);
+            }
         }
+        double totalAmountEvaluated = totals.getTotalAmountEvaluated();
 
-        // Get the total number of nights that the apartment was booked for the given month and year
-        int totalNights = 0;
-        // Get the total amount of money that Airbnb declared to pay for the city tax for the given month and year
-        double totalCityTaxAmount = 0;
+        // Write data to the CSV file
+        try {
+            CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(fileName), CSVFormat.DEFAULT.withHeader("TOTAL CITY TAX AMOUNT", "TOTAL GUESTS", "TOTAL NIGHTS", "EVALUATED CITY TAX"));
+            csvPrinter.printRecord(totals.getTotalCityTaxAmount(), totals.totalGuests, totals.totalNights, totalAmountEvaluated);
+            csvPrinter.flush();
+            csvPrinter.close();
+        } catch (IOException e) {
+            System.err.println("ERROR: Could not write to CSV file.");
+            return false;
+        }
 
-        // Get the total number of guests that stayed in the apartment for the given month and year
-        int totalGuests = 0;
-        LocalDate currentMonth = LocalDate.of(year, month, 1);
-        double totalAmountEvaluated = 0;
-        for (Reservation reservation : reservations) {
-            // Get the number of nights that the apartment was booked in the given month and year
-            LocalDate arrivalDate = reservation.getArrivalDate();
-            LocalDate departureDate = reservation.getDepartureDate();
-            // Get the minimum between the departure date and the last day of the month
-            LocalDate end = departureDate.isBefore(currentMonth.plusMonths(1)) ? departureDate : currentMonth.plusMonths(1);
-            // Get the maximum between the arrival date and the first day of the month
-            LocalDate start = arrivalDate.isAfter(currentMonth.minusDays(1)) ? arrivalDate : currentMonth;
-
-            // Get the local taxes for the given period
-            ArrayList<LocalTax> adultsLocalTaxes = localTaxDAO.getLocalTaxesByTarget("adults", start, end);
-            ArrayList<LocalTax> childrenLocalTaxes = localTaxDAO.getLocalTaxesByTarget("children", start, end);
-            ArrayList<LocalTax> infantsLocalTaxes = localTaxDAO.getLocalTaxesByTarget("infants", start, end);
-
-            // Evaluate the local taxes for the given period
-            // Evaluate the various amounts to pay according to the possible changes in the local taxes by
-            // determining how many days of each local tax are in the given period
-            double adultsAmount = 0;
-            double childrenAmount = 0;
-            double infantsAmount = 0;
-
-            // If there are multiple local taxes for the same target, the number of guests is counted only once
-            boolean firstIteration = true;
-
-            for (LocalTax localTax : adultsLocalTaxes) {
-                // Get the minimum between the end date of the local tax and the departure date
-                LocalDate localTaxEndDate = localTax.getEndDate().isBefore(end) ? localTax.getEndDate().plusDays(1) : end;
-                // Get the maximum between the start date of the local tax and the arrival date
-                LocalDate localTaxStartDate = localTax.getStartDate().isAfter(start) ? localTax.getStartDate() : start;
-                // localTaxEndDate and localTaxStartDate should be both in the given month and year
-                localTaxEndDate = localTaxEndDate.isBefore(currentMonth.plusMonths(1)) ? localTaxEndDate : currentMonth.plusMonths(1);
-                localTaxStartDate = localTaxStartDate.isAfter(currentMonth.minusDays(1)) ? localTaxStartDate : currentMonth;
-                // Get the number of days between the start date and the end date of the local tax
-
-                long delta = (localTaxEndDate.toEpochDay() - localTaxStartDate.toEpochDay());
-
-                // Get the number of days between currentMonth and arrivalDate
-                // find number of days between currentMonth and arrivalDate
-                long daysDifference = (currentMonth.toEpochDay() - arrivalDate.toEpochDay());
-                delta = Math.min(Math.min(delta, localTax.getDaysThreshold()), (localTax.getDaysThreshold() - (int) daysDifference));
-
-                // Evaluate if the reservation is eligible for the city tax for the given month and year
-                if (delta <= 0) {
-                    delta = 0;
-                } else {
-                    // Note that the totalGuests counter is incremented only if the reservation is eligible for the city tax
-                    if (firstIteration) {
-                        totalNights += delta * (reservation.getNumberOfGuests() - reservation.getNumberOfChildren() - reservation.getNumberOfInfants());
-                        totalGuests += (reservation.getNumberOfGuests() - reservation.getNumberOfChildren() - reservation.getNumberOfInfants());
-                        // The city tax amount harvested collecting data from the database is counted only once here
-                        // Only get the city tax percentage related to the current month and year
-                        int totalLength = Math.min((int) (reservation.getDepartureDate().toEpochDay() - reservation.getArrivalDate().toEpochDay()), localTax.getDaysThreshold());
-                        daysDifference = (currentMonth.toEpochDay() - arrivalDate.toEpochDay());
-                        if (daysDifference > 0 && daysDifference < localTax.getDaysThreshold()) {
-                            int daysToPay = totalLength - (int)daysDifference;
-                            totalCityTaxAmount += (reservation.getCityTaxAmount() * ((double) daysToPay / totalLength));
-                        } else {
-                            boolean check = departureDate.isAfter(currentMonth.plusMonths(1));
-                            if (check && daysDifference < localTax.getDaysThreshold()) {
-                                daysDifference = currentMonth.plusMonths(1).toEpochDay() - arrivalDate.toEpochDay();
-                                totalCityTaxAmount += (reservation.getCityTaxAmount() * ((double) daysDifference / totalLength));
-                            } else
-                                totalCityTaxAmount += reservation.getCityTaxAmount();
-                        }
-                        // If one or more local taxes expire or start in the middle of the reservation, warn the user
-                        if (localTax.getStartDate().isAfter(arrivalDate) || localTax.getEndDate().isBefore(departureDate)) {
-                            System.err.println("WARNING: One or more local taxes expire or start in the middle of a reservation.");
-                        }
-
-                        firstIteration = false;
-                    }
-                }
-                adultsAmount += localTax.getAmount() * delta;
+        if (totals.isMismatch()) {
+            System.err.println("ERROR: There's a mismatch between the evaluated city tax and the city tax related to each reservation.");
+        }
+
+        // Print all the collected data
+        System.out.println("Total city tax amount: " + totals.getTotalCityTaxAmount());
+        System.out.println("Total guests: " + totals.totalGuests);
+        System.out.println("Total nights: " + totals.totalNights);
+        System.out.println("City tax evaluated: " + totalAmountEvaluated);
+
+        return true;
+
+    }
+
+    // Evaluate the city tax of a given apartment for every month of a year, see evaluateCityTaxDeclaration()
+    public boolean evaluateCityTaxYearlyDeclaration(Accommodation accommodation, int year) throws Exception {
+        return evaluateCityTaxDeclaration(accommodation, YearMonth.of(year, 1), YearMonth.of(year, 12));
+    }
+
+    // Evaluate the city tax of a given apartment for every month from firstMonth to lastMonth, with the same totals
+    // as a monthly declaration for each month. Each reservation is read once and its nights are split into the
+    // months they fall in, and all the months are written to a single CSV file with a row for each month.
+    public boolean evaluateCityTaxDeclaration(Accommodation accommodation, YearMonth firstMonth, YearMonth lastMonth) throws Exception {
+        // Check if the accommodation is valid
+        if (accommodation == null) {
+            System.err.println("ERROR: Accommodation is null");
+            return false;
+        }
+        if (lastMonth.isBefore(firstMonth)) {
+            System.err.println("ERROR: First month must be before last month");
+            return false;
+        }
+
+        DeclarationTotals[] months = collectDeclaration(accommodation, firstMonth, lastMonth, getLocalTaxTimelines());
+        if (months == null) {
+            return false;
+        }
+        if (!writeDeclaration(accommodation, firstMonth, lastMonth, months)) {
+            return false;
+        }
+
+        // Print all the collected data
+        for (DeclarationTotals totals : months) {
+            if (totals.isMismatch()) {
+                System.err.println("ERROR: There's a mismatch between the evaluated city tax and the city tax related to each reservation in " + YearMonth.from(totals.month) + ".");
             }
+            System.out.println(YearMonth.from(totals.month) + ": total city tax amount " + totals.getTotalCityTaxAmount() + ", total guests " + totals.totalGuests + ", total nights " + totals.totalNights + ", city tax evaluated " + totals.getTotalAmountEvaluated());
+        }
 
-            firstIteration = true;
-
-            for (LocalTax localTax : childrenLocalTaxes) {
-                // Get the minimum between the end date of the local tax and the departure date
-                LocalDate localTaxEndDate = localTax.getEndDate().isBefore(end) ? localTax.getEndDate().plusDays(1) : end;
-                // Get the maximum between the start date of the local tax and the arrival date
-                LocalDate localTaxStartDate = localTax.getStartDate().isAfter(start) ? localTax.getStartDate() : start;
-                // localTaxEndDate and localTaxStartDate should be both in the given month and year
-                localTaxEndDate = localTaxEndDate.isBefore(currentMonth.plusMonths(1)) ? localTaxEndDate : currentMonth.plusMonths(1);
-                localTaxStartDate = localTaxStartDate.isAfter(currentMonth.minusDays(1)) ? localTaxStartDate : currentMonth;
-                // Get the number of days between the start date and the end date of the local tax
-
-                long delta = (localTaxEndDate.toEpochDay() - localTaxStartDate.toEpochDay());
-
-                // Get the number of days between currentMonth and arrivalDate
-                // find number of days between currentMonth and arrivalDate
-                long daysDifference = (currentMonth.toEpochDay() - arrivalDate.toEpochDay());
-                delta = Math.min(Math.min(delta, localTax.getDaysThreshold()), (localTax.getDaysThreshold() - (int) daysDifference));
-
-                // Evaluate if the reservation is eligible for the city tax for the given month and year
-                if (delta <= 0) {
-                    delta = 0;
-                } else {
-                    // Note that the totalGuests counter is incremented only if the reservation is eligible for the city tax
-                    if (firstIteration) {
-                        totalNights += delta * reservation.getNumberOfChildren();
-                        totalGuests += reservation.getNumberOfChildren();
-                        firstIteration = false;
-                    }
+        return true;
+    }
+
+    // Same declaration as evaluateCityTaxDeclaration(), read from the monthly rollups instead of the reservations
+    public boolean evaluateCityTaxDeclarationFromRollups(Accommodation accommodation, YearMonth firstMonth, YearMonth lastMonth) throws Exception {
+        // Check if the accommodation is valid
+        if (accommodation == null) {
+            System.err.println("ERROR: Accommodation is null");
+            return false;
+        }
+        if (lastMonth.isBefore(firstMonth)) {
+            System.err.println("ERROR: First month must be before last month");
+            return false;
+        }
+
+        int numberOfMonths = (int) firstMonth.until(lastMonth, ChronoUnit.MONTHS) + 1;
+        DeclarationTotals[] months = new DeclarationTotals[numberOfMonths];
+        for (int i = 0; i < numberOfMonths; i++) {
+            months[i] = new DeclarationTotals(firstMonth.plusMonths(i).atDay(1));
+        }
+        for (MonthlyRollup rollup : monthlyRollupDAO.getAccommodationRollups(accommodation.getId(), firstMonth.getYear(), firstMonth.getMonthValue(), lastMonth.getYear(), lastMonth.getMonthValue())) {
+            months[(int) firstMonth.until(YearMonth.of(rollup.getYear(), rollup.getMonth()), ChronoUnit.MONTHS)].add(rollup);
+        }
+        if (!writeDeclaration(accommodation, firstMonth, lastMonth, months)) {
+            return false;
+        }
+
+        // Print all the collected data
+        for (DeclarationTotals totals : months) {
+            System.out.println(YearMonth.from(totals.month) + ": total city tax amount " + totals.getTotalCityTaxAmount() + ", total guests " + totals.totalGuests + ", total nights " + totals.totalNights + ", city tax evaluated " + totals.getTotalAmountEvaluated());
+        }
+        return true;
+    }
+
+    // The totals of each month from firstMonth to lastMonth for the accommodation, null if the reservations
+    // could not be read. Only reads the database, so it can run for several accommodations at the same time.
+    private DeclarationTotals[] collectDeclaration(Accommodation accommodation, YearMonth firstMonth, YearMonth lastMonth, Map<String, LocalTaxTimeline> timelines) throws Exception {
+        // One bucket for each month, and the first day of each month as an epoch day, with the end of the
+        // period after the last one
+        int numberOfMonths = (int) firstMonth.until(lastMonth, ChronoUnit.MONTHS) + 1;
+        DeclarationTotals[] months = new DeclarationTotals[numberOfMonths];
+        long[] monthStartDays = new long[numberOfMonths + 1];
+        for (int i = 0; i < numberOfMonths; i++) {
+            months[i] = new DeclarationTotals(firstMonth.plusMonths(i).atDay(1));
+            monthStartDays[i] = months[i].month.toEpochDay();
+        }
+        LocalDate endDate = lastMonth.plusMonths(1).atDay(1);
+        monthStartDays[numberOfMonths] = endDate.toEpochDay();
+
+        Stream<Reservation> reservations = reservationHandler.streamAccommodationPeriodReservations(accommodation, firstMonth.atDay(1), endDate);
+        if (reservations == null) {
+            System.err.println("ERROR: Could not read the reservations.");
+            return null;
+        }
+
+        try (reservations) {
+            Iterator<Reservation> iterator = reservations.iterator();
+            while (iterator.hasNext()) {
+                Reservation reservation = iterator.next();
+                // Sweep the months from the one of the arrival to the one of the last night
+                long departureDay = reservation.getDepartureDate().toEpochDay();
+                int i = (int) Math.max(0, firstMonth.until(YearMonth.from(reservation.getArrivalDate()), ChronoUnit.MONTHS));
+                while (i < numberOfMonths && monthStartDays[i] < departureDay) {
+                    declare(months[i], timelines, reservation);
+                    i++;
                 }
-                childrenAmount += localTax.getAmount() * delta;
             }
+        }
+        return months;
+    }
 
-            firstIteration = true;
-
-            for (LocalTax localTax : infantsLocalTaxes) {
-                // Get the minimum between the end date of the local tax and the departure date
-                LocalDate localTaxEndDate = localTax.getEndDate().isBefore(end) ? localTax.getEndDate().plusDays(1) : end;
-                // Get the maximum between the start date of the local tax and the arrival date
-                LocalDate localTaxStartDate = localTax.getStartDate().isAfter(start) ? localTax.getStartDate() : start;
-                // localTaxEndDate and localTaxStartDate should be both in the given month and year
-                localTaxEndDate = localTaxEndDate.isBefore(currentMonth.plusMonths(1)) ? localTaxEndDate : currentMonth.plusMonths(1);
-                localTaxStartDate = localTaxStartDate.isAfter(currentMonth.minusDays(1)) ? localTaxStartDate : currentMonth;
-                // Get the number of days between the start date and the end date of the local tax
-
-                long delta = (localTaxEndDate.toEpochDay() - localTaxStartDate.toEpochDay());
-
-                // Get the number of days between currentMonth and arrivalDate
-                // find number of days between currentMonth and arrivalDate
-                long daysDifference = (currentMonth.toEpochDay() - arrivalDate.toEpochDay());
-                delta = Math.min(Math.min(delta, localTax.getDaysThreshold()), (localTax.getDaysThreshold() - (int) daysDifference));
-
-                // Evaluate if the reservation is eligible for the city tax for the given month and year
-                if (delta <= 0) {
-                    delta = 0;
-                } else {
-                    // Note that the totalGuests counter is incremented only if the reservation is eligible for the city tax
-                    if (firstIteration) {
-                        totalNights += delta * reservation.getNumberOfInfants();
-                        totalGuests += reservation.getNumberOfInfants();
-                        firstIteration = false;
-                    }
-                }
-                infantsAmount += localTax.getAmount() * delta;
+    // Write the declaration of an accommodation to its CSV file, with a row for each month
+    private static boolean writeDeclaration(Accommodation accommodation, YearMonth firstMonth, YearMonth lastMonth, DeclarationTotals[] months) {
+        String fileName = "cityTax_ID_" + accommodation.getId() + "_from_" + firstMonth.getMonthValue() + "_" + firstMonth.getYear() + "_to_" + lastMonth.getMonthValue() + "_" + lastMonth.getYear() + ".csv";
+        try {
+            CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(fileName), CSVFormat.DEFAULT.withHeader("MONTH", "YEAR", "TOTAL CITY TAX AMOUNT", "TOTAL GUESTS", "TOTAL NIGHTS", "EVALUATED CITY TAX"));
+            for (DeclarationTotals totals : months) {
+                csvPrinter.printRecord(totals.month.getMonthValue(), totals.month.getYear(), totals.getTotalCityTaxAmount(), totals.totalGuests, totals.totalNights, totals.getTotalAmountEvaluated());
             }
+            csvPrinter.flush();
+            csvPrinter.close();
+        } catch (IOException e) {
+            System.err.println("ERROR: Could not write to CSV file.");
+            return false;
+        }
+        return true;
+    }
 
-            // Manually calculate the total amount to pay for the given month and year
-            int numberOfAdults = reservation.getNumberOfGuests() - reservation.getNumberOfChildren() - reservation.getNumberOfInfants();
-            totalAmountEvaluated += (adultsAmount * numberOfAdults) + (childrenAmount * reservation.getNumberOfChildren()) + (infantsAmount * reservation.getNumberOfInfants());
+    // Declaration of a slice of the accommodations of a portfolio declaration, split in halves until each task
+    // has a single accommodation
+    private class PortfolioDeclarationTask extends RecursiveTask<Boolean> {
+        // RecursiveTask is Serializable, the tasks themselves are never serialized
+        private static final long serialVersionUID = 1L;
+
+        private final List<Accommodation> accommodations;
+        private final DeclarationTotals[][] results;
+        private final int from;
+        private final int to;
+        private final YearMonth firstMonth;
+        private final YearMonth lastMonth;
+        private final Map<String, LocalTaxTimeline> timelines;
+        private final boolean accommodationFiles;
+
+        private PortfolioDeclarationTask(List<Accommodation> accommodations, DeclarationTotals[][] results, int from, int to, YearMonth firstMonth, YearMonth lastMonth, Map<String, LocalTaxTimeline> timelines, boolean accommodationFiles) {
+            this.accommodations = accommodations;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.firstMonth = firstMonth;
+            this.lastMonth = lastMonth;
+            this.timelines = timelines;
+            this.accommodationFiles = accommodationFiles;
         }
 
-        // Write data to the CSV file
+        @Override
+        protected Boolean compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                PortfolioDeclarationTask left = new PortfolioDeclarationTask(accommodations, results, from, middle, firstMonth, lastMonth, timelines, accommodationFiles);
+                PortfolioDeclarationTask right = new PortfolioDeclarationTask(accommodations, results, middle, to, firstMonth, lastMonth, timelines, accommodationFiles);
+                left.fork();
+                boolean rightDeclared = right.compute();
+                return left.join() && rightDeclared;
+            }
+            Accommodation accommodation = accommodations.get(from);
+            try {
+                results[from] = collectDeclaration(accommodation, firstMonth, lastMonth, timelines);
+            } catch (Exception e) {
+                System.err.println("ERROR: Could not declare the city tax of accommodation " + accommodation.getId() + ": " + e.getMessage());
+                return false;
+            }
+            if (results[from] == null) {
+                return false;
+            }
+            return !accommodationFiles || writeDeclaration(accommodation, firstMonth, lastMonth, results[from]);
+        }
+    }
+
+    // Declare the city tax of all the given accommodations for every month from firstMonth to lastMonth. The
+    // accommodations are declared in parallel, all with the same local tax timelines, and the results are merged
+    // into a single CSV file: a row for each accommodation and month, then a TOTAL row for each month.
+    // The CSV file of each accommodation, as evaluateCityTaxDeclaration() writes it, is only written if asked.
+    public boolean evaluateCityTaxPortfolioDeclaration(List<Accommodation> accommodations, YearMonth firstMonth, YearMonth lastMonth, boolean accommodationFiles) throws Exception {
+        if (accommodations == null || accommodations.isEmpty()) {
+            System.err.println("ERROR: There are no accommodations to declare");
+            return false;
+        }
+        if (lastMonth.isBefore(firstMonth)) {
+            System.err.println("ERROR: First month must be before last month");
+            return false;
+        }
+
+        // Each declaration holds a connection while it reads its reservations, leave one to the rest of the program
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), Database.getPoolSize() - 1)));
+        DeclarationTotals[][] results = new DeclarationTotals[accommodations.size()][];
+        boolean declared;
         try {
-            CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(fileName), CSVFormat.DEFAULT.withHeader("TOTAL CITY TAX AMOUNT", "TOTAL GUESTS", "TOTAL NIGHTS", "EVALUATED CITY TAX"));
-            csvPrinter.printRecord(totalCityTaxAmount, totalGuests, totalNights, totalAmountEvaluated);
+            declared = pool.invoke(new PortfolioDeclarationTask(accommodations, results, 0, accommodations.size(), firstMonth, lastMonth, getLocalTaxTimelines(), accommodationFiles));
+        } finally {
+            pool.shutdown();
+        }
+        if (!declared) {
+            return false;
+        }
+
+        // Merge the months of all the accommodations
+        int numberOfMonths = (int) firstMonth.until(lastMonth, ChronoUnit.MONTHS) + 1;
+        DeclarationTotals[] portfolio = new DeclarationTotals[numberOfMonths];
+        for (int i = 0; i < numberOfMonths; i++) {
+            portfolio[i] = new DeclarationTotals(firstMonth.plusMonths(i).atDay(1));
+            for (DeclarationTotals[] months : results) {
+                portfolio[i].add(months[i]);
+            }
+        }
+
+        String fileName = "cityTax_portfolio_from_" + firstMonth.getMonthValue() + "_" + firstMonth.getYear() + "_to_" + lastMonth.getMonthValue() + "_" + lastMonth.getYear() + ".csv";
+        try {
+            CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(fileName), CSVFormat.DEFAULT.withHeader("ACCOMMODATION ID", "MONTH", "YEAR", "TOTAL CITY TAX AMOUNT", "TOTAL GUESTS", "TOTAL NIGHTS", "EVALUATED CITY TAX"));
+            for (int a = 0; a < accommodations.size(); a++) {
+                for (DeclarationTotals totals : results[a]) {
+                    csvPrinter.printRecord(accommodations.get(a).getId(), totals.month.getMonthValue(), totals.month.getYear(), totals.getTotalCityTaxAmount(), totals.totalGuests, totals.totalNights, totals.getTotalAmountEvaluated());
+                }
+            }
+            for (DeclarationTotals totals : portfolio) {
+                csvPrinter.printRecord("TOTAL", totals.month.getMonthValue(), totals.month.getYear(), totals.getTotalCityTaxAmount(), totals.totalGuests, totals.totalNights, totals.getTotalAmountEvaluated());
+            }
             csvPrinter.flush();
             csvPrinter.close();
         } catch (IOException e) {
@@ -321,19 +729,12 @@ public class AccountingHandler {
             return false;
         }
 
-        if (totalAmountEvaluated != totalCityTaxAmount) {
-            System.err.println("ERROR: There's a mismatch between the evaluated city tax and the city tax related to each reservation.");
+        // Print the totals of the portfolio
+        for (DeclarationTotals totals : portfolio) {
+            System.out.println(YearMonth.from(totals.month) + ": total city tax amount " + totals.getTotalCityTaxAmount() + ", total guests " + totals.totalGuests + ", total nights " + totals.totalNights + ", city tax evaluated " + totals.getTotalAmountEvaluated());
         }
 
-        // Print all the collected data
-        System.out.println("Total city tax amount: " + totalCityTaxAmount);
-        System.out.println("Total guests: " + totalGuests);
-        System.out.println("Total nights: " + totalNights);
-        System.out.println("City tax evaluated: " + totalAmountEvaluated);
-
         return true;
-
     }
 
 }
-
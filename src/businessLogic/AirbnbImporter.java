@@ -0,0 +1,351 @@
+package businessLogic;
+
+import dao.Database;
+import dao.ImportCheckpointDAO;
+import dao.ReservationDAO;
+import domainModel.Accommodation;
+import domainModel.Customer;
+import domainModel.ImportCheckpoint;
+import domainModel.Reservation;
+
+import java.io.FileNotFoundException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+class AirbnbImporter {
+    // Imports the reservations of an accommodation from the two files exported by Airbnb.
+    // The rows go through a streaming pipeline, parse -> merge -> validate -> persist, as typed records:
+    // the reservations file is parsed into a hash table keyed by confirmation code, then each record of the
+    // taxes file is parsed, joined with its reservation, validated and persisted in batches, without any
+    // intermediate file.
+    // The files are read with MappedCsvReader, which only converts the columns listed below.
+    // Reservations are stored with their confirmation code, so importing an export again, or an export
+    // overlapping a previous one, updates the reservations it already imported instead of adding them twice.
+    // Each batch also saves a checkpoint of the source, see ImportProgress, so that the next run only reads
+    // what was appended to the files since.
+
+    // Columns of the taxes file
+    static final String TAXES_CONFIRMATION_CODE = "Codice di Conferma";
+    static final String TAXES_ARRIVAL_DATE = "Arrivo";
+    static final String TAXES_PRICE = "Guadagno lordo";
+    static final String TAXES_CITY_TAX = "Tasse di Soggiorno";
+
+    // Columns of the reservations file
+    static final String RESERVATIONS_CONFIRMATION_CODE = "Codice di conferma";
+    static final String RESERVATIONS_DATE_OF_RESERVATION = "Prenotata";
+    static final String RESERVATIONS_NUMBER_OF_ADULTS = "N. di adulti";
+    static final String RESERVATIONS_NUMBER_OF_CHILDREN = "N. di bambini";
+    static final String RESERVATIONS_NUMBER_OF_INFANTS = "N. di neonati";
+    static final String RESERVATIONS_NUMBER_OF_NIGHTS = "N. di notti";
+    static final String RESERVATIONS_GUEST_NAME = "Nome dell'ospite";
+    static final String RESERVATIONS_PHONE_NUMBER = "Contatti";
+    // Name of the Airbnb listing, only read when an export is routed to several accommodations
+    static final String RESERVATIONS_LISTING = "Annuncio";
+
+    static final String DATE_OF_RESERVATION_FORMAT = "yyyy-MM-dd";
+    static final String ARRIVAL_DATE_FORMAT = "MM/dd/yyyy";
+
+    // Number of reservations written in each transaction
+    static final int BATCH_SIZE = 500;
+
+    // The columns read from each file, the reader gives access to them by position in these lists
+    static final List<String> TAXES_COLUMNS = List.of(TAXES_CONFIRMATION_CODE, TAXES_ARRIVAL_DATE, TAXES_PRICE, TAXES_CITY_TAX);
+    static final List<String> RESERVATIONS_COLUMNS = List.of(RESERVATIONS_CONFIRMATION_CODE, RESERVATIONS_DATE_OF_RESERVATION, RESERVATIONS_NUMBER_OF_ADULTS, RESERVATIONS_NUMBER_OF_CHILDREN, RESERVATIONS_NUMBER_OF_INFANTS, RESERVATIONS_NUMBER_OF_NIGHTS, RESERVATIONS_GUEST_NAME, RESERVATIONS_PHONE_NUMBER);
+    static final List<String> ROUTED_RESERVATIONS_COLUMNS = List.of(RESERVATIONS_CONFIRMATION_CODE, RESERVATIONS_DATE_OF_RESERVATION, RESERVATIONS_NUMBER_OF_ADULTS, RESERVATIONS_NUMBER_OF_CHILDREN, RESERVATIONS_NUMBER_OF_INFANTS, RESERVATIONS_NUMBER_OF_NIGHTS, RESERVATIONS_GUEST_NAME, RESERVATIONS_PHONE_NUMBER, RESERVATIONS_LISTING);
+
+    // A row of the reservations file
+    record ReservationsRow(String confirmationCode, LocalDate dateOfReservation, int numberOfAdults, int numberOfChildren, int numberOfInfants, int numberOfNights, String guestName, String phoneNumber) {
+    }
+
+    // A row of the taxes file, the amounts are in cents
+    record TaxesRow(String confirmationCode, LocalDate arrivalDate, long priceCents, long cityTaxCents) {
+    }
+
+    // A reservation made of a row of each file
+    record MergedRow(String confirmationCode, LocalDate dateOfReservation, LocalDate arrivalDate, LocalDate departureDate, int numberOfAdults, int numberOfChildren, int numberOfInfants, String guestName, String phoneNumber, long priceCents, long cityTaxCents) {
+        int numberOfGuests() {
+            return numberOfAdults + numberOfChildren;
+        }
+    }
+
+    private final ReservationHandler reservationHandler;
+    private final ReservationDAO reservationDAO;
+    private final CustomerBook customerBook;
+    private final ImportCheckpointDAO checkpointDAO;
+
+    AirbnbImporter(ReservationHandler reservationHandler, ReservationDAO reservationDAO, CustomerBook customerBook, ImportCheckpointDAO checkpointDAO) {
+        this.reservationHandler = reservationHandler;
+        this.reservationDAO = reservationDAO;
+        this.customerBook = customerBook;
+        this.checkpointDAO = checkpointDAO;
+    }
+
+    // The exports of an accommodation are one source, whatever the names of the files
+    static String source(Accommodation accommodation) {
+        return "Airbnb accommodation " + accommodation.getId();
+    }
+
+    // Returns the number of rows of the taxes file that were imported
+    int importFiles(Accommodation accommodation, String taxesFilePath, String reservationsFilePath) throws Exception {
+        MappedCsvReader taxesReader = open(taxesFilePath, TAXES_COLUMNS);
+        MappedCsvReader reservationsReader;
+        try {
+            reservationsReader = open(reservationsFilePath, RESERVATIONS_COLUMNS);
+        } catch (Exception e) {
+            taxesReader.close();
+            throw e;
+        }
+        try {
+            checkColumns(taxesReader, taxesFilePath, reservationsReader, reservationsFilePath);
+            ImportProgress progress = startProgress(accommodation, taxesReader, reservationsReader);
+            if (progress.isUpToDate()) {
+                System.out.println("The files " + taxesFilePath + " and " + reservationsFilePath + " were already imported.");
+                return 0;
+            }
+
+            // Parse: the reservations file is the build side of the join
+            LinkedHashMap<String, ReservationsRow> reservationsRowsByCode = new LinkedHashMap<>();
+            MappedCsvReader.Row row;
+            while ((row = reservationsReader.next()) != null) {
+                ReservationsRow reservationsRow = parseReservationsRow(row, reservationsFilePath);
+                // The first record with a given code is the one that is used
+                if (reservationsRow != null && reservationsRowsByCode.putIfAbsent(reservationsRow.confirmationCode(), reservationsRow) != null) {
+                    System.err.println("WARNING: The confirmation code " + reservationsRow.confirmationCode() + " appears more than once in " + reservationsFilePath + ". Only the first record is imported.");
+                }
+            }
+
+            // The taxes file is streamed through the other stages.
+            // A reservation may be matched by several records of the taxes file, e.g. when it was paid in more than one payout.
+            HashSet<String> matchedCodes = new HashSet<>();
+            HashSet<String> importedCodes = new HashSet<>();
+            ArrayList<MergedRow> batch = new ArrayList<>();
+            TaxesRow lastRow = null;
+            int imported = 0;
+            while ((row = taxesReader.next()) != null) {
+                if (taxesReader.getPosition() <= progress.getResumePosition()) {
+                    skip(row, matchedCodes, importedCodes);
+                    continue;
+                }
+                TaxesRow taxesRow = parseTaxesRow(row, taxesFilePath);
+                if (taxesRow == null) {
+                    continue;
+                }
+                lastRow = taxesRow;
+                MergedRow mergedRow = merge(taxesRow, reservationsRowsByCode.get(taxesRow.confirmationCode()), taxesFilePath, reservationsFilePath);
+                if (mergedRow == null) {
+                    continue;
+                }
+                matchedCodes.add(mergedRow.confirmationCode());
+                if (!validate(mergedRow)) {
+                    continue;
+                }
+                batch.add(mergedRow);
+                if (batch.size() == BATCH_SIZE) {
+                    imported += persist(accommodation, batch, importedCodes, progress, progress.checkpoint(taxesReader.getPosition(), lastRow, false));
+                    batch.clear();
+                }
+            }
+            imported += persist(accommodation, batch, importedCodes, progress, progress.checkpoint(taxesReader.getLength(), lastRow, true));
+
+            // Report the reservations that no record of the taxes file refers to
+            for (String confirmationCode : reservationsRowsByCode.keySet()) {
+                if (!matchedCodes.contains(confirmationCode)) {
+                    System.err.println("WARNING: The confirmation code " + confirmationCode + " in " + reservationsFilePath + " has no matching record in " + taxesFilePath + ". The reservation is skipped.");
+                }
+            }
+            return imported;
+        } finally {
+            taxesReader.close();
+            reservationsReader.close();
+        }
+    }
+
+    static MappedCsvReader open(String filePath, List<String> columns) throws Exception {
+        try {
+            return new MappedCsvReader(filePath, columns);
+        } catch (FileNotFoundException e) {
+            throw new Exception("ERROR: The file " + filePath + " does not exist.", e);
+        }
+    }
+
+    // Collect and check the headers of the files
+    static void checkColumns(MappedCsvReader taxesReader, String taxesFilePath, MappedCsvReader reservationsReader, String reservationsFilePath) throws Exception {
+        String errorMessage = "";
+        if (!taxesReader.hasAllColumns()) {
+            errorMessage = "ERROR: The file " + taxesFilePath + " does not contain all the required columns.";
+        }
+        if (!reservationsReader.hasAllColumns()) {
+            errorMessage += (errorMessage.isEmpty() ? "" : "\n") + "ERROR: The file " + reservationsFilePath + " does not contain all the required columns.";
+        }
+        if (!errorMessage.isEmpty()) {
+            throw new Exception(errorMessage);
+        }
+    }
+
+    // Parse stage, rows that cannot be parsed are skipped
+    // The columns are read by their position in RESERVATIONS_COLUMNS and TAXES_COLUMNS
+    static ReservationsRow parseReservationsRow(MappedCsvReader.Row row, String filePath) {
+        try {
+            return new ReservationsRow(
+                    row.getString(0),
+                    row.getDate(1, DATE_OF_RESERVATION_FORMAT),
+                    row.getInt(2),
+                    row.getInt(3),
+                    row.getInt(4),
+                    row.getInt(5),
+                    row.getString(6),
+                    row.getString(7));
+        } catch (DateTimeException | IllegalArgumentException e) {
+            System.err.println("WARNING: Line " + row.getRecordNumber() + " of " + filePath + " could not be parsed (" + e.getMessage() + "). The record is skipped.");
+            return null;
+        }
+    }
+
+    static TaxesRow parseTaxesRow(MappedCsvReader.Row row, String filePath) {
+        try {
+            return new TaxesRow(
+                    row.getString(0),
+                    row.getDate(1, ARRIVAL_DATE_FORMAT),
+                    row.getCents(2),
+                    row.getCents(3));
+        } catch (DateTimeException | IllegalArgumentException e) {
+            System.err.println("WARNING: Line " + row.getRecordNumber() + " of " + filePath + " could not be parsed (" + e.getMessage() + "). The record is skipped.");
+            return null;
+        }
+    }
+
+    // Merge stage, returns null if the taxes row has no reservation
+    static MergedRow merge(TaxesRow taxesRow, ReservationsRow reservationsRow, String taxesFilePath, String reservationsFilePath) {
+        if (reservationsRow == null) {
+            System.err.println("WARNING: The confirmation code " + taxesRow.confirmationCode() + " in " + taxesFilePath + " has no matching reservation in " + reservationsFilePath + ". The record is skipped.");
+            return null;
+        }
+        // The departure date is not exported, it is evaluated from the number of nights
+        return new MergedRow(taxesRow.confirmationCode(), reservationsRow.dateOfReservation(), taxesRow.arrivalDate(), taxesRow.arrivalDate().plusDays(reservationsRow.numberOfNights()),
+                reservationsRow.numberOfAdults(), reservationsRow.numberOfChildren(), reservationsRow.numberOfInfants(), reservationsRow.guestName(), reservationsRow.phoneNumber(),
+                taxesRow.priceCents(), taxesRow.cityTaxCents());
+    }
+
+    // Validate stage, the same checks as addReservation() apart from the availability
+    static boolean validate(MergedRow mergedRow) {
+        String error = null;
+        if (!mergedRow.departureDate().isAfter(mergedRow.arrivalDate())) {
+            error = "the number of nights must be greater than 0";
+        } else if (mergedRow.numberOfGuests() <= 0) {
+            error = "the number of guests must be greater than 0";
+        } else if (mergedRow.numberOfChildren() < 0 || mergedRow.numberOfInfants() < 0 || mergedRow.numberOfChildren() + mergedRow.numberOfInfants() > mergedRow.numberOfGuests()) {
+            error = "the number of children must be less than or equal to the number of guests";
+        } else if (mergedRow.priceCents() < 0) {
+            error = "the price must be greater or equal to 0";
+        }
+        if (error != null) {
+            System.err.println("WARNING: The reservation with confirmation code " + mergedRow.confirmationCode() + " is not valid: " + error + ". The record is skipped.");
+            return false;
+        }
+        return true;
+    }
+
+    ImportProgress startProgress(Accommodation accommodation, MappedCsvReader taxesReader, MappedCsvReader reservationsReader) throws Exception {
+        return startProgress(source(accommodation), taxesReader, reservationsReader);
+    }
+
+    ImportProgress startProgress(String source, MappedCsvReader taxesReader, MappedCsvReader reservationsReader) throws Exception {
+        return new ImportProgress(checkpointDAO, source, taxesReader, reservationsReader);
+    }
+
+    // A record of the taxes file imported by a previous run: its reservation already holds its amounts,
+    // so the following records with the same code are summed to them
+    static void skip(MappedCsvReader.Row row, Set<String> matchedCodes, Set<String> importedCodes) {
+        try {
+            matchedCodes.add(row.getString(0));
+            importedCodes.add(row.getString(0));
+        } catch (IllegalArgumentException e) {
+            // The record has no code, it was skipped by the previous run as well
+        }
+    }
+
+    // Persist stage: the batch is written in a single transaction together with the checkpoint that follows it,
+    // so a conflict only rolls back its own batch and the next run resumes right before it.
+    // The checkpoint is null when the rows are not written in the order of the file.
+    int persist(Accommodation accommodation, List<MergedRow> batch, Set<String> importedCodes, ImportProgress progress, ImportCheckpoint checkpoint) throws Exception {
+        return Database.inTransaction(() -> {
+            for (MergedRow mergedRow : batch) {
+                // The customer is only looked up for a new reservation, repeat guests are found in memory
+                persist(accommodation, mergedRow, () -> customerBook.getOrCreate(mergedRow.guestName(), "", mergedRow.phoneNumber()), importedCodes);
+            }
+            if (checkpoint != null) {
+                progress.save(checkpoint);
+            }
+            return batch.size();
+        });
+    }
+
+    // Upsert a reservation by its confirmation code. importedCodes holds the codes already written by the current
+    // import: a reservation imported by an earlier run takes every field of the export, while the following records
+    // of the same export for that code are payouts whose amounts are summed.
+    void persist(Accommodation accommodation, MergedRow mergedRow, Supplier<Customer> customer, Set<String> importedCodes) throws Exception {
+        Reservation reservation = reservationDAO.findReservationByConfirmationCode(accommodation, mergedRow.confirmationCode());
+        if (reservation == null) {
+            // Reservations imported before the confirmation codes were stored can only be found by their period.
+            // They are looked up first, so that adding the reservation only fails on a real conflict.
+            reservation = reservationDAO.findReservationByPeriod(accommodation, mergedRow.arrivalDate(), mergedRow.departureDate());
+            if (reservation == null) {
+                // Create a new reservation
+                reservation = reservationHandler.addReservation(accommodation, mergedRow.arrivalDate(), mergedRow.departureDate(), mergedRow.numberOfGuests(), mergedRow.numberOfChildren(), mergedRow.numberOfInfants(), customer.get(), mergedRow.priceCents(), mergedRow.cityTaxCents(), mergedRow.dateOfReservation(), mergedRow.confirmationCode());
+                if (reservation == null) {
+                    throw new Exception("ERROR: Conflict between two reservations detected.");
+                }
+                importedCodes.add(mergedRow.confirmationCode());
+                return;
+            }
+            if (reservation.getConfirmationCode() != null) {
+                throw new Exception("ERROR: Conflict between two reservations detected.");
+            }
+            reservation.setConfirmationCode(mergedRow.confirmationCode());
+            System.err.println("WARNING: The reservation with confirmation code " + mergedRow.confirmationCode() + " was imported before its code was stored. It has been updated with the export.");
+        }
+        Reservation previous = reservation.copy();
+        if (importedCodes.add(mergedRow.confirmationCode())) {
+            update(reservation, mergedRow, customer);
+        } else {
+            // Summed in cents, so that the payouts of a reservation add up exactly
+            reservation.setPriceCents(reservation.getPriceCents() + mergedRow.priceCents());
+            reservation.setCityTaxCents(reservation.getCityTaxCents() + mergedRow.cityTaxCents());
+        }
+        reservationDAO.update(reservation);
+        // The listeners see the old reservation removed and the new one added, wherever its dates moved
+        reservationHandler.reservationChanged(previous, reservation);
+    }
+
+    // Overwrite the imported fields of a reservation with the ones of the export
+    private void update(Reservation reservation, MergedRow mergedRow, Supplier<Customer> customer) throws Exception {
+        if (!reservation.getArrivalDate().isEqual(mergedRow.arrivalDate()) || !reservation.getDepartureDate().isEqual(mergedRow.departureDate())) {
+            // The reservation does not conflict with itself, only with the other reservations of the new period
+            try (Stream<Reservation> reservations = reservationDAO.streamAccommodationPeriodReservations(reservation.getAccommodation().getId(), mergedRow.arrivalDate(), mergedRow.departureDate())) {
+                if (reservations.anyMatch(other -> other.getId() != reservation.getId())) {
+                    throw new Exception("ERROR: The reservation with confirmation code " + mergedRow.confirmationCode() + " cannot be moved from " + reservation.getArrivalDate() + " - " + reservation.getDepartureDate() + " to " + mergedRow.arrivalDate() + " - " + mergedRow.departureDate() + ": the apartment is not available for the given dates.");
+                }
+            }
+            reservation.setArrivalDate(mergedRow.arrivalDate());
+            reservation.setDepartureDate(mergedRow.departureDate());
+        }
+        // The customer is only looked up when the guest changed
+        Customer guest = reservation.getCustomer();
+        if (guest == null || !mergedRow.guestName().equals(guest.getName()) || !mergedRow.phoneNumber().equals(guest.getPhone())) {
+            reservation.setCustomer(customer.get());
+        }
+        reservation.setNumberOfGuests(mergedRow.numberOfGuests());
+        reservation.setNumberOfChildren(mergedRow.numberOfChildren());
+        reservation.setNumberOfInfants(mergedRow.numberOfInfants());
+        reservation.setDateOfReservation(mergedRow.dateOfReservation());
+        reservation.setPriceCents(mergedRow.priceCents());
+        reservation.setCityTaxCents(mergedRow.cityTaxCents());
+    }
+}
@@ -1,9 +1,14 @@
 package businessLogic;
 
 import dao.CustomerDAO;
+import dao.Database;
 import domainModel.Customer;
 
+import java.text.Normalizer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
 
 public class CustomerBook {
     private final CustomerDAO customerDAO;
@@ -11,8 +16,14 @@ public class CustomerBook {
     // This class is a singleton
     private static CustomerBook instance = null;
 
+    // The customers that have an identity key, by key, so that repeat guests are found without querying the
+    // database. It is loaded on first use and dropped with the other caches, e.g. when a transaction is rolled back.
+    private final HashMap<String, Customer> customersByIdentity = new HashMap<>();
+    private boolean identityIndexLoaded = false;
+
     private CustomerBook(CustomerDAO customerDAO) {
         this.customerDAO = customerDAO;
+        Database.addCacheInvalidationListener(this::invalidateIdentityIndex);
     }
 
     public static CustomerBook getInstance(CustomerDAO customerDAO) {
@@ -33,7 +44,89 @@ public class CustomerBook {
         return customer;
     }
 
-    public Boolean deleteCustomer(int id) {
+    // The customer with the given name and phone, created if there is none yet. Names and phones are compared
+    // once normalized, see identityKey(). Used for the guests of the imports, the address is only set on creation.
+    public synchronized Customer getOrCreate(String name, String address, String phone) {
+        Customer customer = findCustomer(name, phone);
+        if (customer != null) {
+            return customer;
+        }
+        customer = new Customer(-1, name, address, phone);
+        customer.setIdentityKey(identityKey(name, phone));
+        try {
+            customerDAO.insert(customer);
+        } catch (Exception e) {
+            System.err.println("ERROR: Could not insert customer.");
+            return null;
+        }
+        customersByIdentity.put(customer.getIdentityKey(), customer);
+        return customer;
+    }
+
+    // The customer with the given name and phone, null if getOrCreate() never created it
+    public synchronized Customer findCustomer(String name, String phone) {
+        try {
+            loadIdentityIndex();
+        } catch (Exception e) {
+            System.err.println("ERROR: Could not get customers.");
+            return null;
+        }
+        return customersByIdentity.get(identityKey(name, phone));
+    }
+
+    // Insert many customers with a single batch, their IDs are set on the given objects
+    public synchronized boolean addCustomers(Collection<Customer> customers) {
+        try {
+            customerDAO.insertAll(customers);
+        } catch (Exception e) {
+            System.err.println("ERROR: Could not insert customers.");
+            return false;
+        }
+        if (identityIndexLoaded) {
+            for (Customer customer : customers) {
+                if (customer.getIdentityKey() != null) {
+                    customersByIdentity.put(customer.getIdentityKey(), customer);
+                }
+            }
+        }
+        return true;
+    }
+
+    // Trimmed and lower case name, with single spaces, and the digits of the phone with its leading +,
+    // so that "Mario  Rossi" / "+39 333-123 4567" and "mario rossi" / "+393331234567" are the same customer
+    static String identityKey(String name, String phone) {
+        String normalizedName = Normalizer.normalize(name == null ? "" : name, Normalizer.Form.NFKC).trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        StringBuilder normalizedPhone = new StringBuilder();
+        if (phone != null) {
+            String trimmedPhone = phone.trim();
+            if (trimmedPhone.startsWith("+")) {
+                normalizedPhone.append('+');
+            }
+            for (int i = 0; i < trimmedPhone.length(); i++) {
+                if (Character.isDigit(trimmedPhone.charAt(i))) {
+                    normalizedPhone.append(trimmedPhone.charAt(i));
+                }
+            }
+        }
+        return normalizedName + "\n" + normalizedPhone;
+    }
+
+    private void loadIdentityIndex() throws Exception {
+        if (identityIndexLoaded) {
+            return;
+        }
+        for (Customer customer : customerDAO.getIdentifiedCustomers()) {
+            customersByIdentity.put(customer.getIdentityKey(), customer);
+        }
+        identityIndexLoaded = true;
+    }
+
+    private synchronized void invalidateIdentityIndex() {
+        customersByIdentity.clear();
+        identityIndexLoaded = false;
+    }
+
+    public synchronized Boolean deleteCustomer(int id) {
         try {
             if(!customerDAO.delete(id)) {
                 return false;
@@ -42,6 +135,7 @@ public class CustomerBook {
             System.err.println("ERROR: Could not delete customer.");
             return false;
         }
+        customersByIdentity.values().removeIf(customer -> customer.getId() == id);
         return true;
     }
 
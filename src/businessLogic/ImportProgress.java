@@ -0,0 +1,109 @@
+package businessLogic;
+
+import dao.ImportCheckpointDAO;
+import domainModel.ImportCheckpoint;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.HexFormat;
+
+class ImportProgress {
+    // Checkpoints of the import of a source. Exports are cumulative, so a new export usually starts with the
+    // bytes of the previous one: if the part of the taxes file imported by the last run, and the reservations
+    // file it was joined with, are still the first bytes of the files, the import skips ahead to the end of
+    // that part. Otherwise the files are imported again from the start, which the upsert by confirmation code
+    // makes safe. The checkpoints are saved in the transaction of each batch, so an interrupted import resumes
+    // after its last committed batch.
+    private final ImportCheckpointDAO checkpointDAO;
+    private final String source;
+    private final MappedCsvReader taxesReader;
+    private final String reservationsHash;
+    private final long reservationsLength;
+    private final ImportCheckpoint previous;
+    private long resumePosition = 0;
+
+    // Incremental hash of the taxes file, it covers its first taxesHashLength bytes
+    private MessageDigest taxesDigest;
+    private long taxesHashLength = 0;
+
+    ImportProgress(ImportCheckpointDAO checkpointDAO, String source, MappedCsvReader taxesReader, MappedCsvReader reservationsReader) throws Exception {
+        this.checkpointDAO = checkpointDAO;
+        this.source = source;
+        this.taxesReader = taxesReader;
+        this.previous = checkpointDAO.get(source);
+
+        MessageDigest reservationsDigest = newDigest();
+        reservationsLength = reservationsReader.getLength();
+        boolean reservationsUnchanged = false;
+        if (previous != null && previous.getReservationsLength() <= reservationsLength) {
+            reservationsReader.digest(reservationsDigest, 0, previous.getReservationsLength());
+            reservationsUnchanged = hex((MessageDigest) reservationsDigest.clone()).equals(previous.getReservationsHash());
+            reservationsReader.digest(reservationsDigest, previous.getReservationsLength(), reservationsLength);
+        } else {
+            reservationsReader.digest(reservationsDigest, 0, reservationsLength);
+        }
+        reservationsHash = hex(reservationsDigest);
+
+        taxesDigest = newDigest();
+        if (reservationsUnchanged && previous.getTaxesLength() <= taxesReader.getLength()) {
+            advance(previous.getTaxesLength());
+            if (hex((MessageDigest) taxesDigest.clone()).equals(previous.getTaxesHash())) {
+                resumePosition = previous.getTaxesLength();
+            } else {
+                taxesDigest = newDigest();
+                taxesHashLength = 0;
+            }
+        }
+        if (resumePosition > 0 && !isUpToDate()) {
+            System.out.println("Resuming the import of " + source + " after the confirmation code " + previous.getLastConfirmationCode() + " (arrival on " + previous.getLastArrivalDate() + ").");
+        }
+    }
+
+    // Whether the last run imported the whole of both files
+    boolean isUpToDate() {
+        return previous != null && previous.isCompleted() && resumePosition == taxesReader.getLength() && previous.getReservationsLength() == reservationsLength;
+    }
+
+    // Records of the taxes file ending at or before this offset were imported by a previous run
+    long getResumePosition() {
+        return resumePosition;
+    }
+
+    // The checkpoint of an import that went up to the given offset of the taxes file
+    ImportCheckpoint checkpoint(long taxesPosition, AirbnbImporter.TaxesRow lastRow, boolean completed) {
+        advance(taxesPosition);
+        String lastConfirmationCode = lastRow == null ? null : lastRow.confirmationCode();
+        LocalDate lastArrivalDate = lastRow == null ? null : lastRow.arrivalDate();
+        if (lastRow == null && previous != null && resumePosition > 0) {
+            // Nothing new was imported, the last record is still the one of the previous run
+            lastConfirmationCode = previous.getLastConfirmationCode();
+            lastArrivalDate = previous.getLastArrivalDate();
+        }
+        try {
+            return new ImportCheckpoint(source, taxesPosition, hex((MessageDigest) taxesDigest.clone()), reservationsLength, reservationsHash, lastConfirmationCode, lastArrivalDate, completed);
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Must be called in the transaction of the batch the checkpoint belongs to
+    void save(ImportCheckpoint checkpoint) throws Exception {
+        checkpointDAO.save(checkpoint);
+    }
+
+    private void advance(long position) {
+        if (position > taxesHashLength) {
+            taxesReader.digest(taxesDigest, taxesHashLength, position);
+            taxesHashLength = position;
+        }
+    }
+
+    private static MessageDigest newDigest() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256");
+    }
+
+    private static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
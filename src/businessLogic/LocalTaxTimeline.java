@@ -0,0 +1,160 @@
+package businessLogic;
+
+import domainModel.LocalTax;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+final class LocalTaxTimeline {
+    // The local taxes of one target as an immutable timeline: the periods are held as epoch days sorted by
+    // start day, together with their rates and thresholds, so that the taxes in force in a period are found
+    // with two binary searches instead of a query, and the tax of a stay is read from prefix sums of the
+    // daily rate without allocating. A timeline is never modified, AccountingHandler builds new ones and
+    // swaps them in when the local taxes change.
+    // The amounts are summed in cents, see Money.
+
+    private final LocalTax[] localTaxes;
+    // First and last day of each tax, both included as in the LocalTax table
+    private final long[] startDays;
+    private final long[] endDays;
+    // Largest end day of the taxes up to each index, it never decreases along the timeline
+    private final long[] maxEndDays;
+    private final long[] amountCents;
+    private final int[] daysThresholds;
+
+    // Prefix sums of the daily rate, one group for each days threshold. The rate changes only on breakpoint
+    // days: from breakpoints[g][k] to the next breakpoint the taxes of group g add up to rates[g][k] cents a
+    // night, and cumulatives[g][k] cents were due for one guest staying every night from breakpoints[g][0]
+    // to breakpoints[g][k]. The tax of any range of nights is then the difference of two prefix sums.
+    private final int[] groupThresholds;
+    private final long[][] breakpoints;
+    private final long[][] rates;
+    private final long[][] cumulatives;
+
+    private LocalTaxTimeline(ArrayList<LocalTax> localTaxes) {
+        // Same order as the LocalTaxTargetPeriod index that answers LocalTaxDAO.getLocalTaxesByTarget()
+        localTaxes.sort(Comparator.comparing(LocalTax::getStartDate).thenComparing(LocalTax::getEndDate).thenComparingInt(LocalTax::getId));
+        int size = localTaxes.size();
+        this.localTaxes = localTaxes.toArray(new LocalTax[0]);
+        this.startDays = new long[size];
+        this.endDays = new long[size];
+        this.maxEndDays = new long[size];
+        this.amountCents = new long[size];
+        this.daysThresholds = new int[size];
+        long maxEndDay = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            LocalTax localTax = this.localTaxes[i];
+            startDays[i] = localTax.getStartDate().toEpochDay();
+            endDays[i] = localTax.getEndDate().toEpochDay();
+            maxEndDay = Math.max(maxEndDay, endDays[i]);
+            maxEndDays[i] = maxEndDay;
+            amountCents[i] = localTax.getAmountCents();
+            daysThresholds[i] = localTax.getDaysThreshold();
+        }
+
+        int[] thresholds = Arrays.stream(daysThresholds).distinct().sorted().toArray();
+        groupThresholds = thresholds;
+        breakpoints = new long[thresholds.length][];
+        rates = new long[thresholds.length][];
+        cumulatives = new long[thresholds.length][];
+        for (int g = 0; g < thresholds.length; g++) {
+            // Changes of the daily rate: a tax starts on its first day and stops the day after its last day
+            TreeMap<Long, Long> changes = new TreeMap<>();
+            for (int i = 0; i < size; i++) {
+                if (daysThresholds[i] == thresholds[g]) {
+                    long rate = amountCents[i];
+                    changes.merge(startDays[i], rate, Long::sum);
+                    changes.merge(endDays[i] + 1, -rate, Long::sum);
+                }
+            }
+            breakpoints[g] = new long[changes.size()];
+            rates[g] = new long[changes.size()];
+            cumulatives[g] = new long[changes.size()];
+            int k = 0;
+            long rate = 0;
+            for (Map.Entry<Long, Long> change : changes.entrySet()) {
+                breakpoints[g][k] = change.getKey();
+                cumulatives[g][k] = k == 0 ? 0 : cumulatives[g][k - 1] + rate * (breakpoints[g][k] - breakpoints[g][k - 1]);
+                rate += change.getValue();
+                rates[g][k] = rate;
+                k++;
+            }
+        }
+    }
+
+    // One timeline for each target
+    static Map<String, LocalTaxTimeline> build(Collection<LocalTax> localTaxes) {
+        HashMap<String, ArrayList<LocalTax>> byTarget = new HashMap<>();
+        for (LocalTax localTax : localTaxes) {
+            byTarget.computeIfAbsent(localTax.getTarget(), target -> new ArrayList<>()).add(localTax);
+        }
+        HashMap<String, LocalTaxTimeline> timelines = new HashMap<>();
+        for (Map.Entry<String, ArrayList<LocalTax>> target : byTarget.entrySet()) {
+            timelines.put(target.getKey(), new LocalTaxTimeline(target.getValue()));
+        }
+        return Map.copyOf(timelines);
+    }
+
+    // The taxes in force on at least one day of [startDate, endDate], the same ones as
+    // LocalTaxDAO.getLocalTaxesByTarget() returns
+    ArrayList<LocalTax> getLocalTaxes(LocalDate startDate, LocalDate endDate) {
+        long startDay = startDate.toEpochDay();
+        long endDay = endDate.toEpochDay();
+        // Taxes before lo end before the period, taxes from hi on start after it
+        int lo = firstIndex(maxEndDays, startDay);
+        int hi = firstIndex(startDays, endDay + 1);
+        ArrayList<LocalTax> result = new ArrayList<>();
+        for (int i = lo; i < hi; i++) {
+            if (endDays[i] >= startDay) {
+                result.add(localTaxes[i]);
+            }
+        }
+        return result;
+    }
+
+    // Cents due for one guest arrived on arrivalDay for the nights from fromDay included to toDay excluded.
+    // Each tax is only due for the first nights of the stay, up to its days threshold, so the range is
+    // clipped to them for each group of taxes with the same threshold.
+    long getCents(long arrivalDay, long fromDay, long toDay) {
+        long cents = 0;
+        for (int g = 0; g < groupThresholds.length; g++) {
+            long clippedToDay = Math.min(toDay, arrivalDay + groupThresholds[g]);
+            if (clippedToDay > fromDay) {
+                cents += prefixSum(g, clippedToDay) - prefixSum(g, fromDay);
+            }
+        }
+        return cents;
+    }
+
+    // Cents due for one guest staying every night before the given day
+    private long prefixSum(int g, long day) {
+        long[] days = breakpoints[g];
+        // Last breakpoint on or before the day
+        int k = firstIndex(days, day + 1) - 1;
+        if (k < 0) {
+            return 0;
+        }
+        return cumulatives[g][k] + rates[g][k] * (day - days[k]);
+    }
+
+    // Index of the first value greater than or equal to the key in a non-decreasing array
+    private static int firstIndex(long[] values, long key) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,421 @@
+package businessLogic;
+
+import domainModel.Money;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class MappedCsvReader implements Closeable {
+    // CSV reader for very large exports. The file is memory-mapped and tokenized directly over its bytes:
+    // a record is only a list of field offsets, and the requested columns are converted on demand,
+    // integers, amounts in cents and dates straight from the bytes, so that most fields never become a String.
+    // It reads the same files as the CSVFormat.DEFAULT parser with a header row, ignored header case and
+    // trimmed values: comma separated fields, optionally double-quoted with "" as escaped quote,
+    // \n or \r\n line endings, empty lines skipped.
+    // Files are mapped in a single buffer, so they are limited to 2 GB.
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int limit;
+    private int position = 0;
+    private long recordNumber = 0;
+
+    // Offsets of every field of the current record, reused from one record to the next
+    private int[] fieldStarts = new int[32];
+    private int[] fieldEnds = new int[32];
+    private boolean[] fieldEscaped = new boolean[32];
+    private boolean[] fieldQuoted = new boolean[32];
+    private int fieldCount = 0;
+
+    // Field index of each requested column, -1 if the file does not have it
+    private final int[] columnFields;
+    private final List<String> columns;
+    private final Row row;
+
+    MappedCsvReader(String filePath, List<String> columns) throws IOException {
+        try {
+            channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(filePath);
+        }
+        if (channel.size() > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("ERROR: The file " + filePath + " is too large to be read.");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        limit = buffer.limit();
+        // Skip the UTF-8 byte order mark
+        if (limit >= 3 && (buffer.get(0) & 0xFF) == 0xEF && (buffer.get(1) & 0xFF) == 0xBB && (buffer.get(2) & 0xFF) == 0xBF) {
+            position = 3;
+        }
+
+        ArrayList<String> header = new ArrayList<>();
+        if (nextRecord()) {
+            for (int field = 0; field < fieldCount; field++) {
+                header.add(decode(buffer, fieldStarts[field], fieldEnds[field], fieldEscaped[field]));
+            }
+        }
+        this.columns = List.copyOf(columns);
+        this.columnFields = new int[columns.size()];
+        for (int column = 0; column < columns.size(); column++) {
+            columnFields[column] = -1;
+            for (int field = 0; field < header.size(); field++) {
+                if (header.get(field).equalsIgnoreCase(columns.get(column))) {
+                    columnFields[column] = field;
+                    break;
+                }
+            }
+        }
+        row = new Row(buffer, columns.size());
+    }
+
+    boolean hasAllColumns() {
+        for (int field : columnFields) {
+            if (field == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The next record, or null at the end of the file.
+    // The returned row is reused by the following call, use Row.copy() to keep it.
+    Row next() {
+        if (!nextRecord()) {
+            return null;
+        }
+        row.recordNumber = recordNumber;
+        for (int column = 0; column < columnFields.length; column++) {
+            int field = columnFields[column];
+            if (field == -1 || field >= fieldCount) {
+                // Reported when the value is read
+                row.starts[column] = -1;
+                row.missing[column] = columns.get(column);
+            } else {
+                row.starts[column] = fieldStarts[field];
+                row.ends[column] = fieldEnds[field];
+                row.escaped[column] = fieldEscaped[field];
+            }
+        }
+        return row;
+    }
+
+    // Byte offset of the end of the last record returned by next()
+    long getPosition() {
+        return position;
+    }
+
+    long getLength() {
+        return limit;
+    }
+
+    // Feed the bytes [from, to) of the file to the digest
+    void digest(MessageDigest digest, long from, long to) {
+        digest.update(buffer.slice((int) from, (int) (to - from)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping itself is released when the buffer is garbage collected
+        channel.close();
+    }
+
+    // Tokenize the next non-empty record into the field arrays
+    private boolean nextRecord() {
+        while (position < limit) {
+            fieldCount = 0;
+            while (true) {
+                parseField();
+                if (position >= limit) {
+                    break;
+                }
+                byte b = buffer.get(position);
+                if (b == ',') {
+                    position++;
+                    continue;
+                }
+                // End of the line
+                position++;
+                if (b == '\r' && position < limit && buffer.get(position) == '\n') {
+                    position++;
+                }
+                break;
+            }
+            if (fieldCount == 1 && fieldStarts[0] == fieldEnds[0] && !fieldQuoted[0]) {
+                // Empty line
+                continue;
+            }
+            recordNumber++;
+            return true;
+        }
+        return false;
+    }
+
+    private void parseField() {
+        if (fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+            fieldEscaped = Arrays.copyOf(fieldEscaped, fieldCount * 2);
+            fieldQuoted = Arrays.copyOf(fieldQuoted, fieldCount * 2);
+        }
+        while (position < limit && isBlank(buffer.get(position))) {
+            position++;
+        }
+        int start;
+        int end;
+        boolean quoted = position < limit && buffer.get(position) == '"';
+        boolean escaped = false;
+        if (quoted) {
+            position++;
+            start = position;
+            end = limit;
+            while (position < limit) {
+                byte b = buffer.get(position);
+                if (b == '"') {
+                    if (position + 1 < limit && buffer.get(position + 1) == '"') {
+                        escaped = true;
+                        position += 2;
+                        continue;
+                    }
+                    end = position;
+                    position++;
+                    break;
+                }
+                position++;
+            }
+            // Anything between the closing quote and the separator is ignored
+            while (position < limit && !isSeparator(buffer.get(position))) {
+                position++;
+            }
+        } else {
+            start = position;
+            while (position < limit && !isSeparator(buffer.get(position))) {
+                position++;
+            }
+            end = position;
+            while (end > start && isBlank(buffer.get(end - 1))) {
+                end--;
+            }
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldEscaped[fieldCount] = escaped;
+        fieldQuoted[fieldCount] = quoted;
+        fieldCount++;
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ',' || b == '\n' || b == '\r';
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end, boolean escaped) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        return escaped ? value.replace("\"\"", "\"") : value;
+    }
+
+    // The requested columns of a record, converted on demand
+    static class Row {
+        private final ByteBuffer buffer;
+        private final int[] starts;
+        private final int[] ends;
+        private final boolean[] escaped;
+        private final String[] missing;
+        private long recordNumber;
+
+        private Row(ByteBuffer buffer, int columns) {
+            this.buffer = buffer;
+            this.starts = new int[columns];
+            this.ends = new int[columns];
+            this.escaped = new boolean[columns];
+            this.missing = new String[columns];
+        }
+
+        // A copy that stays valid after the reader moves on, e.g. to hand the row to another thread
+        Row copy() {
+            Row copy = new Row(buffer, starts.length);
+            System.arraycopy(starts, 0, copy.starts, 0, starts.length);
+            System.arraycopy(ends, 0, copy.ends, 0, ends.length);
+            System.arraycopy(escaped, 0, copy.escaped, 0, escaped.length);
+            System.arraycopy(missing, 0, copy.missing, 0, missing.length);
+            copy.recordNumber = recordNumber;
+            return copy;
+        }
+
+        // Number of the record in the file, the header is record 1
+        long getRecordNumber() {
+            return recordNumber;
+        }
+
+        String getString(int column) {
+            check(column);
+            return decode(buffer, starts[column], ends[column], escaped[column]);
+        }
+
+        int getInt(int column) {
+            check(column);
+            int position = starts[column];
+            int end = ends[column];
+            boolean negative = false;
+            if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+                negative = buffer.get(position) == '-';
+                position++;
+            }
+            if (position == end) {
+                throw invalidNumber(column);
+            }
+            long value = 0;
+            for (; position < end; position++) {
+                int digit = buffer.get(position) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw invalidNumber(column);
+                }
+                value = value * 10 + digit;
+                if (value > Integer.MAX_VALUE + 1L) {
+                    throw invalidNumber(column);
+                }
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw invalidNumber(column);
+            }
+            return (int) value;
+        }
+
+        // Parse an amount of money as a whole number of cents, without going through a double: the digits after
+        // the second decimal are rounded, halves away from zero
+        long getCents(int column) {
+            check(column);
+            int position = starts[column];
+            int end = ends[column];
+            boolean negative = false;
+            if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+                negative = buffer.get(position) == '-';
+                position++;
+            }
+            long cents = 0;
+            int decimals = -1;
+            boolean hasDigits = false;
+            boolean roundUp = false;
+            for (; position < end; position++) {
+                byte b = buffer.get(position);
+                if (b == '.' && decimals == -1) {
+                    decimals = 0;
+                    continue;
+                }
+                int digit = b - '0';
+                if (digit < 0 || digit > 9 || cents > MAX_CENTS) {
+                    // Exponents, huge amounts and anything unusual go through the JDK parser, which also reports the errors
+                    return Money.toCents(Double.parseDouble(getString(column)));
+                }
+                hasDigits = true;
+                if (decimals < 2) {
+                    cents = cents * 10 + digit;
+                    if (decimals >= 0) {
+                        decimals++;
+                    }
+                } else if (decimals == 2) {
+                    roundUp = digit >= 5;
+                    decimals++;
+                }
+            }
+            if (!hasDigits) {
+                throw invalidNumber(column);
+            }
+            for (int i = Math.max(decimals, 0); i < 2; i++) {
+                cents *= 10;
+            }
+            if (roundUp) {
+                cents++;
+            }
+            return negative ? -cents : cents;
+        }
+
+        // Parse a date written with a pattern made of the y, M and d fields and literal separators,
+        // e.g. MM/dd/yyyy. Fields may have fewer digits than the pattern, as in 1/4/2023.
+        LocalDate getDate(int column, String pattern) {
+            check(column);
+            int position = starts[column];
+            int end = ends[column];
+            int year = -1;
+            int month = -1;
+            int day = -1;
+            int i = 0;
+            while (i < pattern.length()) {
+                char letter = pattern.charAt(i);
+                if (letter == 'y' || letter == 'M' || letter == 'd') {
+                    int count = 0;
+                    while (i < pattern.length() && pattern.charAt(i) == letter) {
+                        i++;
+                        count++;
+                    }
+                    // Months and days have at most as many digits as the pattern, years up to 9
+                    int maxDigits = letter == 'y' ? 9 : Math.max(2, count);
+                    int value = 0;
+                    int digits = 0;
+                    while (position < end && buffer.get(position) >= '0' && buffer.get(position) <= '9' && digits < maxDigits) {
+                        value = value * 10 + (buffer.get(position) - '0');
+                        position++;
+                        digits++;
+                    }
+                    if (digits == 0) {
+                        throw invalidDate(column, pattern, position);
+                    }
+                    if (letter == 'y') {
+                        year = value;
+                    } else if (letter == 'M') {
+                        month = value;
+                    } else {
+                        day = value;
+                    }
+                } else {
+                    if (position >= end || buffer.get(position) != letter) {
+                        throw invalidDate(column, pattern, position);
+                    }
+                    position++;
+                    i++;
+                }
+            }
+            if (position != end || year == -1 || month == -1 || day == -1) {
+                throw invalidDate(column, pattern, position);
+            }
+            // Throws a DateTimeException for impossible dates
+            return LocalDate.of(year, month, day);
+        }
+
+        private void check(int column) {
+            if (starts[column] == -1) {
+                throw new IllegalArgumentException("the record has no value for the column " + missing[column]);
+            }
+        }
+
+        private NumberFormatException invalidNumber(int column) {
+            return new NumberFormatException("For input string: \"" + getString(column) + "\"");
+        }
+
+        private DateTimeParseException invalidDate(int column, String pattern, int position) {
+            return new DateTimeParseException("Text '" + getString(column) + "' does not match the pattern " + pattern, getString(column), Math.max(0, position - starts[column]));
+        }
+
+        // Largest number of cents that can take one more digit without overflowing
+        private static final long MAX_CENTS = Long.MAX_VALUE / 10 - 9;
+    }
+}
@@ -0,0 +1,340 @@
+package businessLogic;
+
+import dao.Database;
+import domainModel.Accommodation;
+import domainModel.Customer;
+import domainModel.ImportCheckpoint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+class ParallelAirbnbImporter {
+    // Import mode for very large Airbnb exports: the stages of AirbnbImporter run on their own threads,
+    //   read (CSV tokenizing) -> convert (dates and numbers, merge, validation) -> resolve customers -> write
+    // connected by bounded queues. When the SQLite writer falls behind the queues fill up and the stages
+    // before it block, so memory stays bounded whatever the size of the export.
+    // The conversion stage runs on several threads, the others on one: the CSV reader is not thread-safe and
+    // SQLite has a single writer, so every database write happens on the write thread.
+    // Rows are written in a different order than in the file, which only matters for conflicting reservations.
+    // For the same reason the checkpoint of the source is only saved once the whole file is imported: a new
+    // export still skips what the previous runs imported, but an interrupted parallel import starts over.
+    static final int QUEUE_CAPACITY = 1024;
+
+    private final AirbnbImporter importer;
+    private final CustomerBook customerBook;
+    private final int conversionThreads;
+    private final ArrayList<Stage> stages = new ArrayList<>();
+
+    // A merged row with the customer it belongs to. New customers have no ID until they are written.
+    private record ResolvedRow(AirbnbImporter.MergedRow mergedRow, Customer customer) {
+    }
+
+    ParallelAirbnbImporter(AirbnbImporter importer, CustomerBook customerBook, int conversionThreads) {
+        if (conversionThreads < 1) {
+            throw new IllegalArgumentException("ERROR: The number of conversion threads must be greater than 0.");
+        }
+        this.importer = importer;
+        this.customerBook = customerBook;
+        this.conversionThreads = conversionThreads;
+    }
+
+    // Returns the number of rows of the taxes file that were imported
+    int importFiles(Accommodation accommodation, String taxesFilePath, String reservationsFilePath) throws Exception {
+        stages.clear();
+        MappedCsvReader taxesReader = AirbnbImporter.open(taxesFilePath, AirbnbImporter.TAXES_COLUMNS);
+        MappedCsvReader reservationsReader;
+        try {
+            reservationsReader = AirbnbImporter.open(reservationsFilePath, AirbnbImporter.RESERVATIONS_COLUMNS);
+        } catch (Exception e) {
+            taxesReader.close();
+            throw e;
+        }
+        try {
+            AirbnbImporter.checkColumns(taxesReader, taxesFilePath, reservationsReader, reservationsFilePath);
+            ImportProgress progress = importer.startProgress(accommodation, taxesReader, reservationsReader);
+            if (progress.isUpToDate()) {
+                System.out.println("The files " + taxesFilePath + " and " + reservationsFilePath + " were already imported.");
+                return 0;
+            }
+
+            // The build side of the join is read before the pipeline starts
+            LinkedHashMap<String, AirbnbImporter.ReservationsRow> reservationsRowsByCode = new LinkedHashMap<>();
+            MappedCsvReader.Row row;
+            while ((row = reservationsReader.next()) != null) {
+                AirbnbImporter.ReservationsRow reservationsRow = AirbnbImporter.parseReservationsRow(row, reservationsFilePath);
+                if (reservationsRow != null && reservationsRowsByCode.putIfAbsent(reservationsRow.confirmationCode(), reservationsRow) != null) {
+                    System.err.println("WARNING: The confirmation code " + reservationsRow.confirmationCode() + " appears more than once in " + reservationsFilePath + ". Only the first record is imported.");
+                }
+            }
+
+            Channel<MappedCsvReader.Row> records = new Channel<>(QUEUE_CAPACITY, 1, conversionThreads);
+            Channel<AirbnbImporter.MergedRow> mergedRows = new Channel<>(QUEUE_CAPACITY, conversionThreads, 1);
+            Channel<ResolvedRow> resolvedRows = new Channel<>(QUEUE_CAPACITY, 1, 1);
+            Set<String> matchedCodes = ConcurrentHashMap.newKeySet();
+            // Written by the read stage for the skipped records, before it hands over any record to import
+            Set<String> importedCodes = ConcurrentHashMap.newKeySet();
+            AtomicReference<MappedCsvReader.Row> lastRecord = new AtomicReference<>();
+            AtomicInteger imported = new AtomicInteger();
+
+            Stage read = new Stage("read", 1);
+            Stage convert = new Stage("convert", conversionThreads);
+            Stage resolve = new Stage("resolve customers", 1);
+            Stage write = new Stage("write", 1);
+            stages.add(read);
+            stages.add(convert);
+            stages.add(resolve);
+            stages.add(write);
+
+            ExecutorService executor = Executors.newFixedThreadPool(conversionThreads + 3);
+            AtomicReference<Exception> failure = new AtomicReference<>();
+
+            run(executor, failure, read, () -> {
+                MappedCsvReader.Row record;
+                while ((record = taxesReader.next()) != null) {
+                    if (taxesReader.getPosition() <= progress.getResumePosition()) {
+                        AirbnbImporter.skip(record, matchedCodes, importedCodes);
+                        continue;
+                    }
+                    // The reader reuses its row, the conversion threads get their own copy
+                    MappedCsvReader.Row copy = record.copy();
+                    lastRecord.set(copy);
+                    records.put(copy);
+                    read.processed();
+                }
+                records.close();
+            });
+            for (int i = 0; i < conversionThreads; i++) {
+                run(executor, failure, convert, () -> {
+                    MappedCsvReader.Row record;
+                    while ((record = records.take()) != null) {
+                        convert.processed();
+                        AirbnbImporter.TaxesRow taxesRow = AirbnbImporter.parseTaxesRow(record, taxesFilePath);
+                        if (taxesRow == null) {
+                            continue;
+                        }
+                        AirbnbImporter.MergedRow mergedRow = AirbnbImporter.merge(taxesRow, reservationsRowsByCode.get(taxesRow.confirmationCode()), taxesFilePath, reservationsFilePath);
+                        if (mergedRow == null) {
+                            continue;
+                        }
+                        matchedCodes.add(mergedRow.confirmationCode());
+                        if (AirbnbImporter.validate(mergedRow)) {
+                            mergedRows.put(mergedRow);
+                        }
+                    }
+                    mergedRows.close();
+                });
+            }
+            run(executor, failure, resolve, () -> {
+                // Known guests are found in the index of the customer book, and the new guests appearing more
+                // than once in the export are only created once
+                HashMap<String, Customer> customers = new HashMap<>();
+                AirbnbImporter.MergedRow mergedRow;
+                while ((mergedRow = mergedRows.take()) != null) {
+                    AirbnbImporter.MergedRow guestRow = mergedRow;
+                    Customer customer = customers.computeIfAbsent(CustomerBook.identityKey(guestRow.guestName(), guestRow.phoneNumber()), key -> {
+                        Customer known = customerBook.findCustomer(guestRow.guestName(), guestRow.phoneNumber());
+                        if (known != null) {
+                            return known;
+                        }
+                        Customer guest = new Customer(-1, guestRow.guestName(), "", guestRow.phoneNumber());
+                        guest.setIdentityKey(key);
+                        return guest;
+                    });
+                    resolvedRows.put(new ResolvedRow(guestRow, customer));
+                    resolve.processed();
+                }
+                resolvedRows.close();
+            });
+            run(executor, failure, write, () -> {
+                ArrayList<ResolvedRow> batch = new ArrayList<>();
+                ResolvedRow resolvedRow;
+                while ((resolvedRow = resolvedRows.take()) != null) {
+                    batch.add(resolvedRow);
+                    if (batch.size() == AirbnbImporter.BATCH_SIZE) {
+                        imported.addAndGet(persist(accommodation, batch, importedCodes));
+                        write.processed(batch.size());
+                        batch.clear();
+                    }
+                }
+                imported.addAndGet(persist(accommodation, batch, importedCodes));
+                write.processed(batch.size());
+            });
+
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // Keep waiting, the stages stop by themselves once the input is exhausted or one of them fails
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                throw e;
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+
+            for (String confirmationCode : reservationsRowsByCode.keySet()) {
+                if (!matchedCodes.contains(confirmationCode)) {
+                    System.err.println("WARNING: The confirmation code " + confirmationCode + " in " + reservationsFilePath + " has no matching record in " + taxesFilePath + ". The reservation is skipped.");
+                }
+            }
+            // The last record of the file, for the checkpoint
+            AirbnbImporter.TaxesRow lastRow = lastRecord.get() == null ? null : AirbnbImporter.parseTaxesRow(lastRecord.get(), taxesFilePath);
+            ImportCheckpoint checkpoint = progress.checkpoint(taxesReader.getLength(), lastRow, true);
+            Database.inTransaction(() -> {
+                progress.save(checkpoint);
+                return null;
+            });
+            printThroughput();
+            return imported.get();
+        } finally {
+            taxesReader.close();
+            reservationsReader.close();
+        }
+    }
+
+    // Statistics of the stages of the last import
+    ArrayList<Stage> getStages() {
+        return stages;
+    }
+
+    private void printThroughput() {
+        for (Stage stage : stages) {
+            System.out.println("Stage " + stage.getName() + " (" + stage.getThreads() + " thread" + (stage.getThreads() > 1 ? "s" : "") + "): " + stage.getProcessed() + " rows in " + stage.getElapsedMillis() + " ms, " + Math.round(stage.getThroughput()) + " rows/s");
+        }
+    }
+
+    // Write a batch in one transaction: first the customers it introduces, then its reservations
+    private int persist(Accommodation accommodation, ArrayList<ResolvedRow> batch, Set<String> importedCodes) throws Exception {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        return Database.inTransaction(() -> {
+            LinkedHashMap<Customer, Boolean> newCustomers = new LinkedHashMap<>();
+            for (ResolvedRow resolvedRow : batch) {
+                if (resolvedRow.customer().getId() == -1) {
+                    newCustomers.put(resolvedRow.customer(), true);
+                }
+            }
+            if (!customerBook.addCustomers(newCustomers.keySet())) {
+                throw new Exception("ERROR: Could not insert the customers of the batch.");
+            }
+            for (ResolvedRow resolvedRow : batch) {
+                importer.persist(accommodation, resolvedRow.mergedRow(), resolvedRow::customer, importedCodes);
+            }
+            return batch.size();
+        });
+    }
+
+    private interface StageBody {
+        void run() throws Exception;
+    }
+
+    // Run one thread of a stage. The first stage to fail stops all the others.
+    private static void run(ExecutorService executor, AtomicReference<Exception> failure, Stage stage, StageBody body) {
+        executor.execute(() -> {
+            stage.started();
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                // Stopped because another stage failed
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+                executor.shutdownNow();
+            } finally {
+                stage.finished();
+            }
+        });
+    }
+
+    // Bounded queue between two stages. Each producer closes it when done, and once all of them did,
+    // take() returns null to every consumer.
+    private static class Channel<T> {
+        private static final Object END = new Object();
+        private final ArrayBlockingQueue<Object> queue;
+        private final AtomicInteger openProducers;
+        private final int consumers;
+
+        private Channel(int capacity, int producers, int consumers) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.openProducers = new AtomicInteger(producers);
+            this.consumers = consumers;
+        }
+
+        // Blocks while the queue is full
+        private void put(T item) throws InterruptedException {
+            queue.put(item);
+        }
+
+        private void close() throws InterruptedException {
+            if (openProducers.decrementAndGet() == 0) {
+                for (int i = 0; i < consumers; i++) {
+                    queue.put(END);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private T take() throws InterruptedException {
+            Object item = queue.take();
+            return item == END ? null : (T) item;
+        }
+    }
+
+    // Number of rows handled by a stage and the time its threads were running
+    static class Stage {
+        private final String name;
+        private final int threads;
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong startNanos = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong endNanos = new AtomicLong(Long.MIN_VALUE);
+
+        private Stage(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        private void started() {
+            startNanos.accumulateAndGet(System.nanoTime(), Math::min);
+        }
+
+        private void finished() {
+            endNanos.accumulateAndGet(System.nanoTime(), Math::max);
+        }
+
+        private void processed() {
+            processed.incrementAndGet();
+        }
+
+        private void processed(int rows) {
+            processed.addAndGet(rows);
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int getThreads() {
+            return threads;
+        }
+
+        long getProcessed() {
+            return processed.get();
+        }
+
+        long getElapsedMillis() {
+            return Math.max(0, endNanos.get() - startNanos.get()) / 1_000_000;
+        }
+
+        double getThroughput() {
+            long elapsedNanos = Math.max(1, endNanos.get() - startNanos.get());
+            return processed.get() * 1e9 / elapsedNanos;
+        }
+    }
+}
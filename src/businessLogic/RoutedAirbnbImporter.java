@@ -0,0 +1,182 @@
+package businessLogic;
+
+import dao.Database;
+import domainModel.Accommodation;
+import domainModel.ImportCheckpoint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+class RoutedAirbnbImporter {
+    // Import mode for hosts with several listings: the export of the whole Airbnb account is read once and each
+    // reservation goes to the accommodation of its listing, the "Annuncio" column of the reservations file.
+    // The rows are grouped in a batch for each listing, and the full batches are handed to a writer thread, so
+    // the export keeps being parsed and routed while the batches of the other listings are written. SQLite has
+    // a single writer, so the batches themselves are committed one after the other.
+    // As in ParallelAirbnbImporter, the checkpoint is only saved once the whole file is imported.
+
+    // Number of full batches waiting for the writer before the reader blocks
+    static final int PENDING_BATCHES = 4;
+
+    private final AirbnbImporter importer;
+
+    RoutedAirbnbImporter(AirbnbImporter importer) {
+        this.importer = importer;
+    }
+
+    // The checkpoints of a routed import belong to its mapping of listings to accommodations, so the same export
+    // routed to other accommodations is imported again. Each listing name is written with its length, a name
+    // cannot be mistaken for the separators whatever characters it holds.
+    static String source(Map<String, Accommodation> listings) {
+        StringBuilder source = new StringBuilder("Airbnb listings");
+        for (Map.Entry<String, Accommodation> listing : new TreeMap<>(listings).entrySet()) {
+            source.append(' ').append(listing.getKey().length()).append(':').append(listing.getKey()).append('=').append(listing.getValue().getId());
+        }
+        return source.toString();
+    }
+
+    // Returns the number of rows of the taxes file that were imported
+    int importFiles(Map<String, Accommodation> listings, String taxesFilePath, String reservationsFilePath) throws Exception {
+        MappedCsvReader taxesReader = AirbnbImporter.open(taxesFilePath, AirbnbImporter.TAXES_COLUMNS);
+        MappedCsvReader reservationsReader;
+        try {
+            reservationsReader = AirbnbImporter.open(reservationsFilePath, AirbnbImporter.ROUTED_RESERVATIONS_COLUMNS);
+        } catch (Exception e) {
+            taxesReader.close();
+            throw e;
+        }
+        try {
+            AirbnbImporter.checkColumns(taxesReader, taxesFilePath, reservationsReader, reservationsFilePath);
+            ImportProgress progress = importer.startProgress(source(listings), taxesReader, reservationsReader);
+            if (progress.isUpToDate()) {
+                System.out.println("The files " + taxesFilePath + " and " + reservationsFilePath + " were already imported.");
+                return 0;
+            }
+
+            // The build side of the join, with the accommodation of each reservation
+            LinkedHashMap<String, AirbnbImporter.ReservationsRow> reservationsRowsByCode = new LinkedHashMap<>();
+            HashMap<String, Accommodation> accommodationsByCode = new HashMap<>();
+            HashSet<String> unknownListings = new HashSet<>();
+            MappedCsvReader.Row row;
+            while ((row = reservationsReader.next()) != null) {
+                AirbnbImporter.ReservationsRow reservationsRow = AirbnbImporter.parseReservationsRow(row, reservationsFilePath);
+                if (reservationsRow == null) {
+                    continue;
+                }
+                if (reservationsRowsByCode.putIfAbsent(reservationsRow.confirmationCode(), reservationsRow) != null) {
+                    System.err.println("WARNING: The confirmation code " + reservationsRow.confirmationCode() + " appears more than once in " + reservationsFilePath + ". Only the first record is imported.");
+                    continue;
+                }
+                String listing;
+                try {
+                    listing = row.getString(8);
+                } catch (IllegalArgumentException e) {
+                    // The record is cut before the listing
+                    listing = "";
+                }
+                Accommodation accommodation = listings.get(listing);
+                if (accommodation != null) {
+                    accommodationsByCode.put(reservationsRow.confirmationCode(), accommodation);
+                } else if (unknownListings.add(listing)) {
+                    System.err.println("WARNING: The listing " + listing + " in " + reservationsFilePath + " is not mapped to an accommodation. Its reservations are skipped.");
+                }
+            }
+
+            HashSet<String> matchedCodes = new HashSet<>();
+            // Written by this thread for the skipped records, before the first batch is handed to the writer
+            Set<String> importedCodes = ConcurrentHashMap.newKeySet();
+            LinkedHashMap<Accommodation, ArrayList<AirbnbImporter.MergedRow>> batches = new LinkedHashMap<>();
+            AirbnbImporter.TaxesRow lastRow = null;
+
+            ExecutorService writer = Executors.newSingleThreadExecutor();
+            Semaphore pendingBatches = new Semaphore(PENDING_BATCHES);
+            ArrayList<Future<Integer>> written = new ArrayList<>();
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            try {
+                while ((row = taxesReader.next()) != null && failure.get() == null) {
+                    if (taxesReader.getPosition() <= progress.getResumePosition()) {
+                        AirbnbImporter.skip(row, matchedCodes, importedCodes);
+                        continue;
+                    }
+                    AirbnbImporter.TaxesRow taxesRow = AirbnbImporter.parseTaxesRow(row, taxesFilePath);
+                    if (taxesRow == null) {
+                        continue;
+                    }
+                    lastRow = taxesRow;
+                    AirbnbImporter.MergedRow mergedRow = AirbnbImporter.merge(taxesRow, reservationsRowsByCode.get(taxesRow.confirmationCode()), taxesFilePath, reservationsFilePath);
+                    if (mergedRow == null) {
+                        continue;
+                    }
+                    matchedCodes.add(mergedRow.confirmationCode());
+                    Accommodation accommodation = accommodationsByCode.get(mergedRow.confirmationCode());
+                    if (accommodation == null || !AirbnbImporter.validate(mergedRow)) {
+                        continue;
+                    }
+                    ArrayList<AirbnbImporter.MergedRow> batch = batches.computeIfAbsent(accommodation, key -> new ArrayList<>());
+                    batch.add(mergedRow);
+                    if (batch.size() == AirbnbImporter.BATCH_SIZE) {
+                        written.add(submit(writer, pendingBatches, failure, accommodation, batch, importedCodes, progress));
+                        batches.remove(accommodation);
+                    }
+                }
+                for (Map.Entry<Accommodation, ArrayList<AirbnbImporter.MergedRow>> batch : batches.entrySet()) {
+                    written.add(submit(writer, pendingBatches, failure, batch.getKey(), batch.getValue(), importedCodes, progress));
+                }
+            } finally {
+                writer.shutdown();
+            }
+            int imported = 0;
+            for (Future<Integer> batch : written) {
+                try {
+                    imported += batch.get();
+                } catch (ExecutionException e) {
+                    // Reported below, the batches after the one that failed were not written
+                }
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+
+            ImportCheckpoint checkpoint = progress.checkpoint(taxesReader.getLength(), lastRow, true);
+            Database.inTransaction(() -> {
+                progress.save(checkpoint);
+                return null;
+            });
+            for (String confirmationCode : reservationsRowsByCode.keySet()) {
+                if (!matchedCodes.contains(confirmationCode)) {
+                    System.err.println("WARNING: The confirmation code " + confirmationCode + " in " + reservationsFilePath + " has no matching record in " + taxesFilePath + ". The reservation is skipped.");
+                }
+            }
+            return imported;
+        } finally {
+            taxesReader.close();
+            reservationsReader.close();
+        }
+    }
+
+    // Hand a full batch over to the writer, blocking while too many batches are waiting.
+    // Once a batch failed the following ones are dropped.
+    private Future<Integer> submit(ExecutorService writer, Semaphore pendingBatches, AtomicReference<Exception> failure, Accommodation accommodation, ArrayList<AirbnbImporter.MergedRow> batch, Set<String> importedCodes, ImportProgress progress) throws InterruptedException {
+        pendingBatches.acquire();
+        return writer.submit(() -> {
+            try {
+                if (failure.get() != null) {
+                    return 0;
+                }
+                return importer.persist(accommodation, batch, importedCodes, progress, null);
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+                throw e;
+            } finally {
+                pendingBatches.release();
+            }
+        });
+    }
+}
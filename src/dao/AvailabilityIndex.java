@@ -0,0 +1,204 @@
+package dao;
+
+import domainModel.Reservation;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class AvailabilityIndex {
+    // In-memory index of the booked periods, with one interval tree for each accommodation.
+    // It is loaded from the Reservation table and then kept in sync by the DAOs, so that availability
+    // checks never have to scan the Reservation table.
+
+    // This class is a singleton
+    private static AvailabilityIndex instance = null;
+
+    private final HashMap<Integer, IntervalTree> trees = new HashMap<>();
+    // Every indexed reservation by id, needed to find its tree when it is updated or deleted
+    private final HashMap<Integer, Entry> entries = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean loaded = false;
+
+    private static class Entry {
+        private final int accommodationId;
+        private final int customerId;
+        private final long start;
+        private final long end;
+
+        private Entry(int accommodationId, int customerId, long start, long end) {
+            this.accommodationId = accommodationId;
+            this.customerId = customerId;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private AvailabilityIndex() {
+        // Whatever was cached may be stale once the database is replaced or a transaction is rolled back
+        Database.addCacheInvalidationListener(this::invalidate);
+    }
+
+    public static synchronized AvailabilityIndex getInstance() {
+        if (instance == null) {
+            instance = new AvailabilityIndex();
+        }
+        return instance;
+    }
+
+    // (Re)build the index from the Reservation table
+    public void load() throws SQLException {
+        lock.writeLock().lock();
+        try {
+            trees.clear();
+            entries.clear();
+            try (Connection connection = Database.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT id, accommodationId, customerId, arrivalDate, departureDate FROM Reservation")) {
+                while (resultSet.next()) {
+                    put(resultSet.getInt("id"), new Entry(resultSet.getInt("accommodationId"), resultSet.getInt("customerId"), resultSet.getDate("arrivalDate").toLocalDate().toEpochDay(), resultSet.getDate("departureDate").toLocalDate().toEpochDay()));
+                }
+            }
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Drop the index, it is loaded again the next time it is used
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            trees.clear();
+            entries.clear();
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Whether the accommodation has no reservation intersecting [startDate, endDate)
+    public boolean isAvailable(int accommodationId, LocalDate startDate, LocalDate endDate) throws SQLException {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            IntervalTree tree = trees.get(accommodationId);
+            return tree == null || !tree.overlaps(startDate.toEpochDay(), endDate.toEpochDay());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void add(Reservation reservation) {
+        lock.writeLock().lock();
+        try {
+            // An index that is not loaded yet will read the change from the database
+            if (!loaded) {
+                return;
+            }
+            removeEntry(reservation.getId());
+            put(reservation.getId(), new Entry(reservation.getAccommodation().getId(), reservation.getCustomer().getId(), reservation.getArrivalDate().toEpochDay(), reservation.getDepartureDate().toEpochDay()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void update(Reservation reservation) {
+        // The period or the accommodation may have changed, so the reservation is indexed again
+        add(reservation);
+    }
+
+    public void remove(int reservationId) {
+        lock.writeLock().lock();
+        try {
+            // An index that is not loaded yet will read the change from the database
+            if (!loaded) {
+                return;
+            }
+            removeEntry(reservationId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Called when an accommodation is deleted together with its reservations
+    public void removeAccommodation(int accommodationId) {
+        lock.writeLock().lock();
+        try {
+            // An index that is not loaded yet will read the change from the database
+            if (!loaded) {
+                return;
+            }
+            trees.remove(accommodationId);
+            entries.values().removeIf(entry -> entry.accommodationId == accommodationId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Called when a customer is deleted together with its reservations
+    public void removeCustomer(int customerId) {
+        lock.writeLock().lock();
+        try {
+            // An index that is not loaded yet will read the change from the database
+            if (!loaded) {
+                return;
+            }
+            ArrayList<Integer> reservationIds = new ArrayList<>();
+            for (Map.Entry<Integer, Entry> entry : entries.entrySet()) {
+                if (entry.getValue().customerId == customerId) {
+                    reservationIds.add(entry.getKey());
+                }
+            }
+            for (int reservationId : reservationIds) {
+                removeEntry(reservationId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureLoaded() throws SQLException {
+        lock.readLock().lock();
+        try {
+            if (loaded) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            // Another thread may have loaded it in the meantime
+            if (!loaded) {
+                load();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Must be called while holding the write lock
+    private void put(int reservationId, Entry entry) {
+        entries.put(reservationId, entry);
+        trees.computeIfAbsent(entry.accommodationId, id -> new IntervalTree()).insert(reservationId, entry.start, entry.end);
+    }
+
+    // Must be called while holding the write lock
+    private void removeEntry(int reservationId) {
+        Entry entry = entries.remove(reservationId);
+        if (entry == null) {
+            return;
+        }
+        IntervalTree tree = trees.get(entry.accommodationId);
+        if (tree != null) {
+            tree.remove(reservationId, entry.start);
+            if (tree.size() == 0) {
+                trees.remove(entry.accommodationId);
+            }
+        }
+    }
+}
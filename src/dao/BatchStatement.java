@@ -0,0 +1,58 @@
+package dao;
+
+import java.sql.*;
+import java.util.Collection;
+
+class BatchStatement {
+    // Runs one statement for many rows with JDBC batching: the statement is prepared once, every row is added
+    // to the batch and the whole batch is written in a single transaction, instead of one round trip and one
+    // commit per row.
+    // Rows are sent in chunks of CHUNK_SIZE so that a very large batch is not held twice in memory.
+    private static final int CHUNK_SIZE = 1000;
+
+    interface Binder<T> {
+        // Set the parameters of the statement for the given row
+        void bind(PreparedStatement preparedStatement, T row) throws SQLException;
+    }
+
+    private BatchStatement() {
+        // Exists only to defeat instantiation.
+    }
+
+    // Returns the total number of rows changed
+    static <T> int execute(String sql, Collection<T> rows, Binder<T> binder) throws Exception {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        return Database.inTransaction(() -> {
+            int changed = 0;
+            try (Connection connection = Database.getConnection();
+                 PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                int pending = 0;
+                for (T row : rows) {
+                    binder.bind(preparedStatement, row);
+                    preparedStatement.addBatch();
+                    if (++pending == CHUNK_SIZE) {
+                        changed += sum(preparedStatement.executeBatch());
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    changed += sum(preparedStatement.executeBatch());
+                }
+            }
+            return changed;
+        });
+    }
+
+    private static int sum(int[] updateCounts) {
+        int sum = 0;
+        for (int updateCount : updateCounts) {
+            // Drivers may report SUCCESS_NO_INFO instead of a count
+            if (updateCount > 0) {
+                sum += updateCount;
+            }
+        }
+        return sum;
+    }
+}
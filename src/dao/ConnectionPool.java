@@ -0,0 +1,271 @@
+package dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+class ConnectionPool {
+    // Bounded pool of physical SQLite connections.
+    // Borrowed connections are proxies: closing them returns the physical connection to the pool.
+    // A thread that borrows again while it still holds a connection gets another proxy of the same physical
+    // connection, which goes back to the pool when the last of its proxies is closed. A thread therefore never
+    // holds more than one connection, and threads cannot block each other waiting for a second one.
+    private final String url;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    // One permit for each connection that can be borrowed at the same time
+    private final Semaphore permits;
+    // Idle connections, the most recently returned one is at the head
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+    // Connection held by the current thread, if any
+    private final ThreadLocal<HeldConnection> heldConnection = new ThreadLocal<>();
+    private boolean shutdown = false;
+
+    ConnectionPool(String url, int maxSize, long idleTimeoutMillis, long borrowTimeoutMillis) {
+        this.url = url;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    Connection borrow() throws SQLException {
+        HeldConnection held = heldConnection.get();
+        if (held != null && held.retain()) {
+            return newProxy(held);
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("ERROR: Timed out waiting for a database connection (pool size " + maxSize + ").");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("ERROR: Interrupted while waiting for a database connection.", e);
+        }
+        try {
+            Connection physical = takeIdleConnection();
+            if (physical == null) {
+                physical = DriverManager.getConnection(url);
+            }
+            held = new HeldConnection(physical);
+            heldConnection.set(held);
+            return newProxy(held);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Connection newProxy(HeldConnection held) {
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{Connection.class}, new PooledConnection(held));
+    }
+
+    // Close every idle connection; borrowed connections are closed as soon as they are returned
+    void shutdown() {
+        ArrayList<IdleConnection> toClose;
+        synchronized (this) {
+            shutdown = true;
+            toClose = new ArrayList<>(idleConnections);
+            idleConnections.clear();
+        }
+        for (IdleConnection idleConnection : toClose) {
+            closeQuietly(idleConnection.connection);
+        }
+    }
+
+    // While a connection is pinned, close() leaves it open so that several DAO calls can share it
+    static void setPinned(Connection connection, boolean pinned) {
+        ((PooledConnection) Proxy.getInvocationHandler(connection)).pinned = pinned;
+    }
+
+    synchronized int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    private Connection takeIdleConnection() {
+        while (true) {
+            IdleConnection idleConnection;
+            synchronized (this) {
+                evictIdleConnections();
+                idleConnection = idleConnections.pollFirst();
+            }
+            if (idleConnection == null) {
+                return null;
+            }
+            // Health check: discard connections that were closed or broken while sitting in the pool
+            if (isHealthy(idleConnection.connection)) {
+                return idleConnection.connection;
+            }
+            closeQuietly(idleConnection.connection);
+        }
+    }
+
+    private void release(Connection physical) {
+        boolean reusable;
+        try {
+            // Leave the connection as a new one would be: no pending transaction and autocommit on
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            physical.clearWarnings();
+            reusable = !physical.isClosed();
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        synchronized (this) {
+            if (reusable && !shutdown) {
+                idleConnections.addFirst(new IdleConnection(physical, System.currentTimeMillis()));
+                physical = null;
+            }
+            evictIdleConnections();
+        }
+        if (physical != null) {
+            closeQuietly(physical);
+        }
+        permits.release();
+    }
+
+    // Must be called while holding the lock on this pool
+    private void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        Iterator<IdleConnection> iterator = idleConnections.descendingIterator();
+        while (iterator.hasNext()) {
+            IdleConnection idleConnection = iterator.next();
+            // The oldest connections are at the tail, stop at the first one that is still fresh
+            if (now - idleConnection.since < idleTimeoutMillis) {
+                break;
+            }
+            iterator.remove();
+            closeQuietly(idleConnection.connection);
+        }
+    }
+
+    private static boolean isHealthy(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(1);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Nothing else can be done with a connection that cannot even be closed
+        }
+    }
+
+    // A physical connection borrowed by a thread, with the number of its proxies that are still open
+    private static class HeldConnection {
+        private final Connection physical;
+        private int references = 1;
+
+        private HeldConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        // Add a proxy, false if the connection already went back to the pool
+        private synchronized boolean retain() {
+            if (references == 0) {
+                return false;
+            }
+            references++;
+            return true;
+        }
+
+        // Remove a proxy, true if it was the last one
+        private synchronized boolean release() {
+            return --references == 0;
+        }
+    }
+
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long since;
+
+        private IdleConnection(Connection connection, long since) {
+            this.connection = connection;
+            this.since = since;
+        }
+    }
+
+    private class PooledConnection implements InvocationHandler {
+        private final HeldConnection held;
+        private final Connection physical;
+        // Statements created through this connection, closed when the connection goes back to the pool
+        private final ArrayList<Statement> statements = new ArrayList<>();
+        private boolean closed = false;
+        private boolean pinned = false;
+
+        private PooledConnection(HeldConnection held) {
+            this.held = held;
+            this.physical = held.physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed && !pinned) {
+                        closed = true;
+                        for (Statement statement : statements) {
+                            closeQuietly(statement);
+                        }
+                        statements.clear();
+                        if (held.release()) {
+                            // Only the borrowing thread holds the connection, unless a proxy is closed elsewhere
+                            if (heldConnection.get() == held) {
+                                heldConnection.remove();
+                            }
+                            release(physical);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + url + "]";
+            }
+            if (closed) {
+                throw new SQLException("ERROR: The connection has already been returned to the pool.");
+            }
+            Object result;
+            try {
+                result = method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Statement statement) {
+                // Forget the statements the caller already closed so that long-lived connections do not grow the list
+                if (statements.size() >= 64) {
+                    statements.removeIf(ConnectionPool::isClosedStatement);
+                }
+                statements.add(statement);
+            }
+            return result;
+        }
+    }
+
+    private static boolean isClosedStatement(Statement statement) {
+        try {
+            return statement.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+}
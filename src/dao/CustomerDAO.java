@@ -2,5 +2,9 @@ package dao;
 
 import domainModel.Customer;
 
+import java.util.ArrayList;
+
 public interface CustomerDAO extends DAO<Customer, Integer>{
+    // The customers that have an identity key, used to build the lookup index of CustomerBook
+    ArrayList<Customer> getIdentifiedCustomers() throws Exception;
 }
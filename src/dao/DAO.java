@@ -1,5 +1,7 @@
 package dao;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.stream.Stream;
 
 public interface DAO<T, ID> {
 
@@ -7,12 +9,24 @@ public interface DAO<T, ID> {
 
     ArrayList<T> getAll() throws Exception;
 
+    // Same rows as getAll(), mapped lazily while the stream is consumed. The stream holds a database
+    // connection until it is closed, so it must be used in a try-with-resources statement.
+    Stream<T> stream() throws Exception;
+
     void insert(T t) throws Exception;
 
     void update(T t) throws Exception;
 
     boolean delete(ID id) throws Exception;
 
+    // Batch variants of insert, update and delete: one prepared statement and one transaction for all the rows.
+    // insertAll assigns the IDs of the whole batch up front, deleteAll returns the number of rows deleted.
+    void insertAll(Collection<T> ts) throws Exception;
+
+    void updateAll(Collection<T> ts) throws Exception;
+
+    int deleteAll(Collection<ID> ids) throws Exception;
+
     int getNextId() throws Exception;
 
 }
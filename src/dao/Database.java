@@ -1,12 +1,39 @@
 package dao;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.*;
-import java.io.*;
+import java.time.LocalDate;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Database {
 
-    // The scheme is located in ../../resources/schema.sql
     private static String dbName = "base.db";
+    // The schema is built by the versioned scripts located in ../../resources/migrations
+    private static final String migrationsDirectory = "resources/migrations";
+    // Scripts of the optional R*Tree storage mode for the date overlap queries
+    private static final String intervalIndexDirectory = "resources/interval_index";
+
+    // Whether the overlap queries go through the ReservationInterval and LocalTaxInterval R*Trees.
+    // The mode is stored in the database file, it is detected by initDatabase().
+    private static volatile boolean intervalIndexEnabled = false;
+
+    // Connection pool settings, they take effect the next time the pool is created
+    private static int poolSize = 4;
+    private static long idleTimeoutMillis = 60_000;
+    private static long borrowTimeoutMillis = 30_000;
+
+    // Number of rows the driver is asked to read at a time by the streaming queries
+    private static int fetchSize = 256;
+
+    // Every connection to dbName is borrowed from this pool
+    private static ConnectionPool pool = null;
+
+    // Connection of the transaction opened by inTransaction() on the current thread, if any
+    private static final ThreadLocal<Connection> transactionConnection = new ThreadLocal<>();
+
+    // In-memory caches of the DAOs, told to forget their content whenever it may no longer match the database
+    private static final CopyOnWriteArrayList<Runnable> cacheInvalidationListeners = new CopyOnWriteArrayList<>();
 
     // Singleton pattern
     private static Database instance = null;
@@ -15,14 +42,66 @@ public class Database {
         // Exists only to defeat instantiation.
     }
 
-    public static void setDatabase(String dbName) {
-        Database.dbName = dbName;
+    public static synchronized void setDatabase(String dbName) {
+        if (!dbName.equals(Database.dbName)) {
+            shutdown();
+            Database.dbName = dbName;
+            // Until initDatabase() checks the new file, use the queries that work on any schema
+            intervalIndexEnabled = false;
+            invalidateCaches();
+        }
+    }
+
+    // Maximum number of connections that can be borrowed at the same time.
+    // A thread holds at most one of them, see ConnectionPool.
+    public static synchronized void setPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("ERROR: The pool size must be greater than 0.");
+        }
+        Database.poolSize = poolSize;
+        shutdown();
+    }
+
+    public static synchronized int getPoolSize() {
+        return poolSize;
+    }
+
+    // Connections left unused in the pool for longer than this are closed
+    public static synchronized void setIdleTimeout(long idleTimeoutMillis) {
+        Database.idleTimeoutMillis = idleTimeoutMillis;
+        shutdown();
+    }
+
+    // How long getConnection() waits for a connection when all of them are borrowed
+    public static synchronized void setBorrowTimeout(long borrowTimeoutMillis) {
+        Database.borrowTimeoutMillis = borrowTimeoutMillis;
+        shutdown();
+    }
+
+    public static synchronized void setFetchSize(int fetchSize) {
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException("ERROR: The fetch size must be positive or zero.");
+        }
+        Database.fetchSize = fetchSize;
+    }
+
+    public static synchronized int getFetchSize() {
+        return fetchSize;
     }
 
     public static Connection getConnection(String dbName) throws SQLException {
         if (instance == null) {
             instance = new Database();
         }
+        if (dbName.equals(Database.dbName)) {
+            // Inside a transaction every DAO gets the connection of the transaction
+            Connection connection = transactionConnection.get();
+            if (connection != null) {
+                return connection;
+            }
+            return getPool().borrow();
+        }
+        // Connections to any other database are not pooled
         return DriverManager.getConnection("jdbc:sqlite:" + dbName);
     }
 
@@ -31,25 +110,139 @@ public class Database {
     }
 
     public static void closeConnection(Connection connection) throws SQLException {
+        // Pooled connections are given back to the pool instead of being closed
         if (connection != null) {
             connection.close();
         }
     }
 
-    public static int initDatabase() throws IOException, SQLException {
-        StringBuilder resultStringBuilder = new StringBuilder();
-        BufferedReader br = new BufferedReader(new FileReader("resources/schema.sql"));
-        String line;
-        while ((line = br.readLine()) != null) {
-            resultStringBuilder.append(line).append("\n");
+    // Run the callback in a single transaction: all the DAO calls it makes share one connection and one commit.
+    // If the callback throws, everything it wrote is rolled back and the exception is rethrown.
+    // Nested calls join the transaction that is already open.
+    public static <T> T inTransaction(TransactionCallback<T> callback) throws Exception {
+        if (transactionConnection.get() != null) {
+            return callback.execute();
+        }
+        Connection connection = getPool().borrow();
+        ConnectionPool.setPinned(connection, true);
+        transactionConnection.set(connection);
+        try {
+            connection.setAutoCommit(false);
+            T result = callback.execute();
+            connection.commit();
+            return result;
+        } catch (Exception e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackException) {
+                e.addSuppressed(rollbackException);
+            }
+            // The caches may have been updated with rows that were just rolled back
+            invalidateCaches();
+            throw e;
+        } finally {
+            transactionConnection.remove();
+            ConnectionPool.setPinned(connection, false);
+            // The connection may still be held by the thread outside the transaction, which expects autocommit
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                // The pool restores autocommit before the connection is reused
+            }
+            closeConnection(connection);
+        }
+    }
+
+    public static boolean isInTransaction() {
+        return transactionConnection.get() != null;
+    }
+
+    public static void addCacheInvalidationListener(Runnable listener) {
+        cacheInvalidationListeners.add(listener);
+    }
+
+    public static void invalidateCaches() {
+        for (Runnable listener : cacheInvalidationListeners) {
+            listener.run();
+        }
+    }
+
+    // Close all the idle pooled connections, a new pool is created on the next getConnection()
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private static synchronized ConnectionPool getPool() {
+        if (pool == null) {
+            pool = new ConnectionPool("jdbc:sqlite:" + dbName, poolSize, idleTimeoutMillis, borrowTimeoutMillis);
         }
+        return pool;
+    }
+
+    // Bring the schema up to date, returns the number of migrations applied.
+    // Existing tables and data are kept, so this is cheap on a database that is already up to date.
+    public static int initDatabase() throws Exception {
+        int applied = new SchemaMigrator(migrationsDirectory).migrate();
 
-        Connection connection = getConnection();
-        Statement statement = getConnection().createStatement();
-        int row = statement.executeUpdate(resultStringBuilder.toString());
+        intervalIndexEnabled = tableExists("ReservationInterval") && tableExists("LocalTaxInterval");
+
+        // The database may have been replaced since the caches were filled, so they are rebuilt from scratch
+        invalidateCaches();
+        if (!intervalIndexEnabled) {
+            // With the R*Tree storage mode the availability is checked in the database instead
+            AvailabilityIndex.getInstance().load();
+        }
+        return applied;
+    }
+
+    // Switch to the R*Tree storage mode: the reservation and local tax periods are also kept in SQLite rtree
+    // virtual tables, so that overlap queries stay logarithmic however long the history is
+    public static void enableIntervalIndex() throws Exception {
+        executeScript(intervalIndexDirectory + "/create.sql");
+        intervalIndexEnabled = true;
+        // The in-memory availability index is not needed anymore
+        AvailabilityIndex.getInstance().invalidate();
+    }
+
+    public static void disableIntervalIndex() throws Exception {
+        executeScript(intervalIndexDirectory + "/drop.sql");
+        intervalIndexEnabled = false;
+    }
+
+    public static boolean isIntervalIndexEnabled() {
+        return intervalIndexEnabled;
+    }
+
+    // Day coordinate used by the R*Trees, the same one the triggers compute from the stored dates
+    static long toIndexDay(LocalDate date) {
+        return Date.valueOf(date).getTime() / 86400000L;
+    }
+
+    private static void executeScript(String path) throws Exception {
+        String script = Files.readString(Path.of(path));
+        inTransaction(() -> {
+            try (Connection connection = getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.executeUpdate(script);
+            }
+            return null;
+        });
+    }
+
+    private static boolean tableExists(String name) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            preparedStatement.setString(1, name);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
 
-        statement.close();
-        closeConnection(connection);
-        return row;
+    public static int getSchemaVersion() throws SQLException {
+        return new SchemaMigrator(migrationsDirectory).getCurrentVersion();
     }
 }
@@ -1,11 +1,129 @@
 package dao;
 
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+
 public class IDGenerator {
-    // Manage generation of unique IDs for each object
-    private static int nextId = 0;
+    // Manage generation of unique IDs for each type of object.
+    // IDs are reserved from the Sequence table in blocks, so that the database is only queried once per block
+    // and the IDs keep growing across restarts. The IDs left in a block when the program stops are skipped.
+    private static final int BLOCK_SIZE = 50;
+
+    // Tables whose IDs are handed out by each sequence.
+    // Apartments and rooms share a sequence because reservations refer to both through accommodationId.
+    private static final Map<String, String[]> SEQUENCE_TABLES = Map.of(
+            "Accommodation", new String[]{"Apartment", "Room"},
+            "Customer", new String[]{"Customer"},
+            "Reservation", new String[]{"Reservation"},
+            "LocalTax", new String[]{"LocalTax"}
+    );
+
+    // The block currently in use for each sequence
+    private static final HashMap<String, Block> blocks = new HashMap<>();
+
+    static {
+        // A rolled back or recreated database no longer knows about the blocks reserved in memory
+        Database.addCacheInvalidationListener(IDGenerator::reset);
+    }
+
+    private static class Block {
+        private int next;
+        private final int last;
+
+        private Block(int next, int last) {
+            this.next = next;
+            this.last = last;
+        }
+
+        private int remaining() {
+            return last - next + 1;
+        }
+
+        // Must be called while holding the lock on IDGenerator
+        private int take(int count) {
+            int first = next;
+            next += count;
+            return first;
+        }
+    }
+
+    private IDGenerator() {
+        // Exists only to defeat instantiation.
+    }
+
+    public static int getNextId(String sequence) throws Exception {
+        return getNextIds(sequence, 1);
+    }
+
+    // Hand out count consecutive IDs at once and return the first one, used by the batch inserts.
+    // The monitor is only held while IDs are taken from a block in memory: a new block is reserved without it, so
+    // a thread waiting for the database write lock never blocks a thread that already holds it in a transaction
+    // and only needs IDs from the current block.
+    public static int getNextIds(String sequence, int count) throws Exception {
+        if (count < 1) {
+            throw new IllegalArgumentException("ERROR: The number of IDs must be greater than 0.");
+        }
+        synchronized (IDGenerator.class) {
+            Block block = blocks.get(sequence);
+            if (block != null && block.remaining() >= count) {
+                return block.take(count);
+            }
+        }
+        Block reserved = reserveBlock(sequence, Math.max(BLOCK_SIZE, count));
+        synchronized (IDGenerator.class) {
+            int first = reserved.take(count);
+            // Another thread may have reserved a block in the meantime, the one with more IDs left is kept
+            // and the IDs left in the other one are skipped
+            Block block = blocks.get(sequence);
+            if (block == null || block.remaining() < reserved.remaining()) {
+                blocks.put(sequence, reserved);
+            }
+            return first;
+        }
+    }
+
+    public static synchronized void reset() {
+        blocks.clear();
+    }
+
+    private static Block reserveBlock(String sequence, int size) throws Exception {
+        String[] tables = SEQUENCE_TABLES.get(sequence);
+        if (tables == null) {
+            throw new IllegalArgumentException("ERROR: Unknown sequence " + sequence + ".");
+        }
+        return Database.inTransaction(() -> {
+            try (Connection connection = Database.getConnection()) {
+                // Writing first takes the database write lock, so no other connection can reserve the same block
+                try (PreparedStatement preparedStatement = connection.prepareStatement("INSERT OR IGNORE INTO Sequence (name, nextId) VALUES (?, 1)")) {
+                    preparedStatement.setString(1, sequence);
+                    preparedStatement.executeUpdate();
+                }
+
+                int first;
+                try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT nextId FROM Sequence WHERE name = ?")) {
+                    preparedStatement.setString(1, sequence);
+                    try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                        first = resultSet.getInt(1);
+                    }
+                }
+
+                // Never go below the IDs already in use, e.g. rows written before the sequence existed
+                try (Statement statement = connection.createStatement()) {
+                    for (String table : tables) {
+                        try (ResultSet resultSet = statement.executeQuery("SELECT MAX(id) FROM " + table)) {
+                            first = Math.max(first, resultSet.getInt(1) + 1);
+                        }
+                    }
+                }
 
-    public static int getNextId() {
-        nextId++;
-        return nextId;
+                try (PreparedStatement preparedStatement = connection.prepareStatement("UPDATE Sequence SET nextId = ? WHERE name = ?")) {
+                    preparedStatement.setInt(1, first + size);
+                    preparedStatement.setString(2, sequence);
+                    preparedStatement.executeUpdate();
+                }
+                return new Block(first, first + size - 1);
+            }
+        });
     }
 }
@@ -0,0 +1,14 @@
+package dao;
+
+import domainModel.ImportCheckpoint;
+
+// Checkpoints are keyed by their source and written as a whole, so this DAO does not extend DAO
+public interface ImportCheckpointDAO {
+    // The checkpoint of the source, null if it was never imported
+    ImportCheckpoint get(String source) throws Exception;
+
+    // Insert the checkpoint or replace the one of the same source
+    void save(ImportCheckpoint checkpoint) throws Exception;
+
+    boolean delete(String source) throws Exception;
+}
@@ -0,0 +1,18 @@
+package dao;
+
+import domainModel.MonthlyRollup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+// Rollups are keyed by accommodation, month and target and only ever added to, so this DAO does not extend DAO
+public interface MonthlyRollupDAO {
+    // Add the rollups to the totals of their accommodation, month and target, creating the missing rows
+    void add(Collection<MonthlyRollup> rollups) throws Exception;
+
+    // The rollups of the accommodation from the first to the last month included, ordered by month and target
+    ArrayList<MonthlyRollup> getAccommodationRollups(int accommodationId, int firstYear, int firstMonth, int lastYear, int lastMonth) throws Exception;
+
+    // Delete all the rollups, returns the number of rows deleted
+    int deleteAll() throws Exception;
+}
@@ -6,13 +6,23 @@ import domainModel.Apartment;
 import domainModel.Reservation;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.stream.Stream;
 
 public interface ReservationDAO extends DAO<Reservation, Integer>{
     boolean checkAvailability(Accommodation accommodation, LocalDate startDate, LocalDate endDate) throws Exception;
-    int getCurrentId() throws Exception;
     ArrayList<Apartment> getAvailableApartments(LocalDate startDate, LocalDate endDate, int numberOfGuests) throws Exception;
     ArrayList<Room> getAvailableRooms(LocalDate startDate, LocalDate endDate, int numberOfGuests) throws Exception;
+    ArrayList<Accommodation> getAvailableAccommodations(LocalDate startDate, LocalDate endDate, int numberOfGuests) throws Exception;
     ArrayList<Reservation> getAccommodationReservations(int accommodationId) throws Exception;
     ArrayList<Reservation> getAccommodationMonthReservations(int accommodationId, int month, int year) throws Exception;
+    // Streaming variants of the list methods, see DAO.stream()
+    Stream<Reservation> streamAccommodationReservations(int accommodationId) throws Exception;
+    Stream<Reservation> streamAccommodationMonthReservations(int accommodationId, int month, int year) throws Exception;
+    // Reservations of the accommodation with at least one night between startDate included and endDate excluded
+    Stream<Reservation> streamAccommodationPeriodReservations(int accommodationId, LocalDate startDate, LocalDate endDate) throws Exception;
+    // Reservations of all the accommodations with at least one night between startDate included and endDate excluded
+    Stream<Reservation> streamPeriodReservations(LocalDate startDate, LocalDate endDate) throws Exception;
     Reservation findReservationByPeriod(Accommodation accommodation, LocalDate startDate, LocalDate endDate) throws Exception;
+    // The reservation of the accommodation imported with the given Airbnb confirmation code, null if there is none
+    Reservation findReservationByConfirmationCode(Accommodation accommodation, String confirmationCode) throws Exception;
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+package dao;
+
+import java.sql.*;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+class ResultSetStream {
+    // Lazily maps the rows of a query to a Stream, so that large tables can be processed one row at a time
+    // instead of being materialized in an ArrayList.
+    // The stream keeps its connection, statement and result set open until it is closed or fully consumed,
+    // so callers must close it, preferably with try-with-resources.
+
+    interface RowMapper<T> {
+        // Returning null skips the row
+        T map(ResultSet resultSet) throws SQLException;
+    }
+
+    interface StatementPreparer {
+        // Prepare the query and bind its parameters on the connection of the stream
+        PreparedStatement prepare(Connection connection) throws SQLException;
+    }
+
+    private ResultSetStream() {
+        // Exists only to defeat instantiation.
+    }
+
+    // Borrow a connection, run the query and stream its rows. The connection and the statement are owned by the
+    // stream from now on, they are given back right away if the query cannot be run.
+    static <T> Stream<T> of(StatementPreparer preparer, RowMapper<T> rowMapper) throws SQLException {
+        Connection connection = Database.getConnection();
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet;
+        try {
+            preparedStatement = preparer.prepare(connection);
+            preparedStatement.setFetchSize(Database.getFetchSize());
+            resultSet = preparedStatement.executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            try (connection) {
+                if (preparedStatement != null) {
+                    preparedStatement.close();
+                }
+            } catch (SQLException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw e;
+        }
+        Cursor<T> cursor = new Cursor<>(connection, preparedStatement, resultSet, rowMapper);
+        return StreamSupport.stream(cursor, false).onClose(cursor::close);
+    }
+
+    private static class Cursor<T> extends Spliterators.AbstractSpliterator<T> {
+        private final Connection connection;
+        private final PreparedStatement preparedStatement;
+        private final ResultSet resultSet;
+        private final RowMapper<T> rowMapper;
+        private boolean closed = false;
+
+        private Cursor(Connection connection, PreparedStatement preparedStatement, ResultSet resultSet, RowMapper<T> rowMapper) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.connection = connection;
+            this.preparedStatement = preparedStatement;
+            this.resultSet = resultSet;
+            this.rowMapper = rowMapper;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (closed) {
+                return false;
+            }
+            try {
+                while (resultSet.next()) {
+                    T row = rowMapper.map(resultSet);
+                    if (row != null) {
+                        action.accept(row);
+                        return true;
+                    }
+                }
+            } catch (SQLException e) {
+                close();
+                throw new RuntimeException("ERROR: Could not read the next row: " + e.getMessage(), e);
+            }
+            // Give the connection back as soon as the last row has been read
+            close();
+            return false;
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // The connection goes back to the pool even if the result set or the statement cannot be closed
+            try (connection) {
+                resultSet.close();
+                preparedStatement.close();
+            } catch (SQLException e) {
+                throw new RuntimeException("ERROR: Could not close the result set: " + e.getMessage(), e);
+            }
+        }
+    }
+}
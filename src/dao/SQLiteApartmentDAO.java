@@ -4,29 +4,30 @@ import domainModel.Apartment;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.stream.Stream;
 
 public class SQLiteApartmentDAO implements ApartmentDAO{
+    private static final String INSERT = "INSERT INTO Apartment (id, description, maxGuestsAllowed, numberOfRooms, numberOfBathrooms, numberOfBedrooms, numberOfBeds) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE = "UPDATE Apartment SET description = ?, maxGuestsAllowed = ?, numberOfRooms = ?, numberOfBathrooms = ?, numberOfBedrooms = ?, numberOfBeds = ? WHERE id = ?";
 
     @Override
-    public int getNextId() {
-        return IDGenerator.getNextId();
+    public int getNextId() throws Exception {
+        return IDGenerator.getNextId("Accommodation");
     }
 
     @Override
     public Apartment get(Integer id) throws Exception {
-        Connection connection = Database.getConnection();
         Apartment apartment = null;
-        PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Apartment WHERE id = ?");
-        preparedStatement.setInt(1, id);
-        ResultSet resultSet = preparedStatement.executeQuery();
-
-        if (resultSet.next()) {
-            apartment = new Apartment(resultSet.getInt("id"), resultSet.getString("description"), resultSet.getInt("maxGuestsAllowed"), resultSet.getInt("numberOfRooms"), resultSet.getInt("numberOfBathrooms"), resultSet.getInt("numberOfBedrooms"), resultSet.getInt("numberOfBeds"));
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Apartment WHERE id = ?")) {
+            preparedStatement.setInt(1, id);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    apartment = new Apartment(resultSet.getInt("id"), resultSet.getString("description"), resultSet.getInt("maxGuestsAllowed"), resultSet.getInt("numberOfRooms"), resultSet.getInt("numberOfBathrooms"), resultSet.getInt("numberOfBedrooms"), resultSet.getInt("numberOfBeds"));
+                }
+            }
         }
-
-        resultSet.close();
-        preparedStatement.close();
-        Database.closeConnection(connection);
         return apartment;
     }
 
@@ -34,8 +35,89 @@ public class SQLiteApartmentDAO implements ApartmentDAO{
     public void insert(Apartment apartment) throws Exception {
         // Consider all possible values that an apartment can have
         apartment.setId(getNextId());
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO Apartment (id, description, maxGuestsAllowed, numberOfRooms, numberOfBathrooms, numberOfBedrooms, numberOfBeds) VALUES (?, ?, ?, ?, ?, ?, ?)");
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(INSERT)) {
+            bindInsert(preparedStatement, apartment);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    @Override
+    public void update(Apartment apartment) throws Exception {
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(UPDATE)) {
+            bindUpdate(preparedStatement, apartment);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    @Override
+    public boolean delete(Integer id) throws Exception {
+        int row;
+        try (Connection connection = Database.getConnection()) {
+            try (PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM Apartment WHERE id = ?")) {
+                preparedStatement.setInt(1, id);
+                row = preparedStatement.executeUpdate();
+            }
+            // Delete all reservations for this apartment
+            try (PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM Reservation WHERE accommodationId = ?")) {
+                preparedStatement.setInt(1, id);
+                preparedStatement.executeUpdate();
+            }
+        }
+        AvailabilityIndex.getInstance().removeAccommodation(id);
+        return row > 0;
+    }
+
+    @Override
+    public void insertAll(Collection<Apartment> apartments) throws Exception {
+        if (apartments.isEmpty()) {
+            return;
+        }
+        int id = IDGenerator.getNextIds("Accommodation", apartments.size());
+        for (Apartment apartment : apartments) {
+            apartment.setId(id++);
+        }
+        BatchStatement.execute(INSERT, apartments, SQLiteApartmentDAO::bindInsert);
+    }
+
+    @Override
+    public void updateAll(Collection<Apartment> apartments) throws Exception {
+        BatchStatement.execute(UPDATE, apartments, SQLiteApartmentDAO::bindUpdate);
+    }
+
+    @Override
+    public int deleteAll(Collection<Integer> ids) throws Exception {
+        // Delete the apartments and all their reservations together
+        int rowsAffected = Database.inTransaction(() -> {
+            BatchStatement.execute("DELETE FROM Reservation WHERE accommodationId = ?", ids, (preparedStatement, id) -> preparedStatement.setInt(1, id));
+            return BatchStatement.execute("DELETE FROM Apartment WHERE id = ?", ids, (preparedStatement, id) -> preparedStatement.setInt(1, id));
+        });
+        for (int id : ids) {
+            AvailabilityIndex.getInstance().removeAccommodation(id);
+        }
+        return rowsAffected;
+    }
+
+    @Override
+    public ArrayList<Apartment> getAll() throws Exception {
+        ArrayList<Apartment> apartments = new ArrayList<>();
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Apartment");
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                apartments.add(mapApartment(resultSet));
+            }
+        }
+        return apartments;
+    }
+
+    @Override
+    public Stream<Apartment> stream() throws Exception {
+        return ResultSetStream.of(connection -> connection.prepareStatement("SELECT * FROM Apartment"), SQLiteApartmentDAO::mapApartment);
+    }
+
+    private static void bindInsert(PreparedStatement preparedStatement, Apartment apartment) throws SQLException {
         preparedStatement.setInt(1, apartment.getId());
         preparedStatement.setString(2, apartment.getDescription());
         preparedStatement.setInt(3, apartment.getMaxGuestsAllowed());
@@ -43,15 +125,9 @@ public class SQLiteApartmentDAO implements ApartmentDAO{
         preparedStatement.setInt(5, apartment.getNumberOfBathrooms());
         preparedStatement.setInt(6, apartment.getNumberOfBedrooms());
         preparedStatement.setInt(7, apartment.getNumberOfBeds());
-        preparedStatement.executeUpdate();
-        preparedStatement.close();
-        Database.closeConnection(connection);
     }
 
-    @Override
-    public void update(Apartment apartment) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("UPDATE Apartment SET description = ?, maxGuestsAllowed = ?, numberOfRooms = ?, numberOfBathrooms = ?, numberOfBedrooms = ?, numberOfBeds = ? WHERE id = ?");
+    private static void bindUpdate(PreparedStatement preparedStatement, Apartment apartment) throws SQLException {
         preparedStatement.setString(1, apartment.getDescription());
         preparedStatement.setInt(2, apartment.getMaxGuestsAllowed());
         preparedStatement.setInt(3, apartment.getNumberOfRooms());
@@ -59,42 +135,9 @@ public class SQLiteApartmentDAO implements ApartmentDAO{
         preparedStatement.setInt(5, apartment.getNumberOfBedrooms());
         preparedStatement.setInt(6, apartment.getNumberOfBeds());
         preparedStatement.setInt(7, apartment.getId());
-        preparedStatement.executeUpdate();
-        preparedStatement.close();
-        Database.closeConnection(connection);
     }
 
-    @Override
-    public boolean delete(Integer id) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM Apartment WHERE id = ?");
-        preparedStatement.setInt(1, id);
-        int row = preparedStatement.executeUpdate();
-        preparedStatement.close();
-        // Delete all reservations for this apartment
-        preparedStatement = connection.prepareStatement("DELETE FROM Reservation WHERE accommodationId = ?");
-        preparedStatement.setInt(1, id);
-        preparedStatement.executeUpdate();
-        preparedStatement.close();
-        Database.closeConnection(connection);
-        return row > 0;
-    }
-
-    @Override
-    public ArrayList<Apartment> getAll() throws Exception {
-        Connection connection = Database.getConnection();
-        ArrayList<Apartment> apartments = new ArrayList<>();
-        PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Apartment");
-        ResultSet resultSet = preparedStatement.executeQuery();
-
-        while (resultSet.next()) {
-            Apartment apartment = new Apartment(resultSet.getInt("id"), resultSet.getString("description"), resultSet.getInt("maxGuestsAllowed"), resultSet.getInt("numberOfRooms"), resultSet.getInt("numberOfBathrooms"), resultSet.getInt("numberOfBedrooms"), resultSet.getInt("numberOfBeds"));
-            apartments.add(apartment);
-        }
-
-        resultSet.close();
-        preparedStatement.close();
-        Database.closeConnection(connection);
-        return apartments;
+    private static Apartment mapApartment(ResultSet resultSet) throws SQLException {
+        return new Apartment(resultSet.getInt("id"), resultSet.getString("description"), resultSet.getInt("maxGuestsAllowed"), resultSet.getInt("numberOfRooms"), resultSet.getInt("numberOfBathrooms"), resultSet.getInt("numberOfBedrooms"), resultSet.getInt("numberOfBeds"));
     }
 }
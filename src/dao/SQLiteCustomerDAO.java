@@ -5,98 +5,151 @@ import domainModel.Customer;
 import java.sql.Connection;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.stream.Stream;
 
 public class SQLiteCustomerDAO implements CustomerDAO{
+    private static final String INSERT = "INSERT INTO Customer (id, name, address, phone, identityKey) VALUES (?, ?, ?, ?, ?)";
+    private static final String UPDATE = "UPDATE Customer SET name = ?, address = ?, phone = ?, identityKey = ? WHERE id = ?";
 
     @Override
     public int getNextId() throws Exception {
-        Connection connection = Database.getConnection();
-        Statement statement = connection.createStatement();
-        ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM Customer");
-        int id = resultSet.getInt(1);
-        resultSet.close();
-        statement.close();
-        Database.closeConnection(connection);
-        return id;
+        return IDGenerator.getNextId("Customer");
     }
 
     @Override
     public Customer get(Integer id) throws Exception {
-        Connection connection = Database.getConnection();
         Customer customer = null;
-        PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Customer WHERE id = ?");
-        preparedStatement.setInt(1, id);
-        ResultSet resultSet = preparedStatement.executeQuery();
-
-        if (resultSet.next()) {
-            customer = new Customer(id, resultSet.getString("name"), resultSet.getString("address"), resultSet.getString("phone"));
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Customer WHERE id = ?")) {
+            preparedStatement.setInt(1, id);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    customer = mapCustomer(resultSet);
+                }
+            }
         }
-
-        resultSet.close();
-        preparedStatement.close();
-        Database.closeConnection(connection);
         return customer;
     }
 
     @Override
     public ArrayList<Customer> getAll() throws Exception {
-        Connection connection = Database.getConnection();
         ArrayList<Customer> customers = new ArrayList<>();
-        Statement statement = connection.createStatement();
-        ResultSet resultSet = statement.executeQuery("SELECT * FROM Customer");
-
-        while (resultSet.next()) {
-            Customer customer = new Customer(resultSet.getInt("id"), resultSet.getString("name"), resultSet.getString("address"), resultSet.getString("phone"));
-            customers.add(customer);
+        try (Connection connection = Database.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM Customer")) {
+            while (resultSet.next()) {
+                customers.add(mapCustomer(resultSet));
+            }
         }
-
-        resultSet.close();
-        statement.close();
-        Database.closeConnection(connection);
         return customers;
     }
 
     @Override
     public void insert(Customer customer) throws Exception {
-        Connection connection = Database.getConnection();
         customer.setId(getNextId());
-        PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO Customer (id, name, address, phone) VALUES (?, ?, ?, ?)");
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(INSERT)) {
+            bindInsert(preparedStatement, customer);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    @Override
+    public void update(Customer customer) throws Exception {
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(UPDATE)) {
+            bindUpdate(preparedStatement, customer);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    @Override
+    public boolean delete(Integer id) throws Exception {
+        int rowsAffected;
+        try (Connection connection = Database.getConnection()) {
+            try (PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM Customer WHERE id = ?")) {
+                preparedStatement.setInt(1, id);
+                rowsAffected = preparedStatement.executeUpdate();
+            }
+            // Delete all reservations for this customer
+            try (PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM Reservation WHERE customerId = ?")) {
+                preparedStatement.setInt(1, id);
+                preparedStatement.executeUpdate();
+            }
+        }
+        AvailabilityIndex.getInstance().removeCustomer(id);
+        return rowsAffected > 0;
+    }
+
+    @Override
+    public void insertAll(Collection<Customer> customers) throws Exception {
+        if (customers.isEmpty()) {
+            return;
+        }
+        int id = IDGenerator.getNextIds("Customer", customers.size());
+        for (Customer customer : customers) {
+            customer.setId(id++);
+        }
+        BatchStatement.execute(INSERT, customers, SQLiteCustomerDAO::bindInsert);
+    }
+
+    @Override
+    public void updateAll(Collection<Customer> customers) throws Exception {
+        BatchStatement.execute(UPDATE, customers, SQLiteCustomerDAO::bindUpdate);
+    }
+
+    @Override
+    public int deleteAll(Collection<Integer> ids) throws Exception {
+        // Delete the customers and all their reservations together
+        int rowsAffected = Database.inTransaction(() -> {
+            BatchStatement.execute("DELETE FROM Reservation WHERE customerId = ?", ids, (preparedStatement, id) -> preparedStatement.setInt(1, id));
+            return BatchStatement.execute("DELETE FROM Customer WHERE id = ?", ids, (preparedStatement, id) -> preparedStatement.setInt(1, id));
+        });
+        for (int id : ids) {
+            AvailabilityIndex.getInstance().removeCustomer(id);
+        }
+        return rowsAffected;
+    }
+
+    @Override
+    public ArrayList<Customer> getIdentifiedCustomers() throws Exception {
+        ArrayList<Customer> customers = new ArrayList<>();
+        try (Connection connection = Database.getConnection();
+             Statement statement = connection.createStatement();
+             // Only reads the CustomerIdentity index entries that are not NULL
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM Customer WHERE identityKey IS NOT NULL")) {
+            while (resultSet.next()) {
+                customers.add(mapCustomer(resultSet));
+            }
+        }
+        return customers;
+    }
+
+    @Override
+    public Stream<Customer> stream() throws Exception {
+        return ResultSetStream.of(connection -> connection.prepareStatement("SELECT * FROM Customer"), SQLiteCustomerDAO::mapCustomer);
+    }
+
+    private static void bindInsert(PreparedStatement preparedStatement, Customer customer) throws SQLException {
         preparedStatement.setInt(1, customer.getId());
         preparedStatement.setString(2, customer.getName());
         preparedStatement.setString(3, customer.getAddress());
         preparedStatement.setString(4, customer.getPhone());
-        preparedStatement.executeUpdate();
-        preparedStatement.close();
-        Database.closeConnection(connection);
+        preparedStatement.setString(5, customer.getIdentityKey());
     }
 
-    @Override
-    public void update(Customer customer) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("UPDATE Customer SET name = ?, address = ?, phone = ? WHERE id = ?");
+    private static void bindUpdate(PreparedStatement preparedStatement, Customer customer) throws SQLException {
         preparedStatement.setString(1, customer.getName());
         preparedStatement.setString(2, customer.getAddress());
         preparedStatement.setString(3, customer.getPhone());
-        preparedStatement.setInt(4, customer.getId());
-        preparedStatement.executeUpdate();
-        preparedStatement.close();
-        Database.closeConnection(connection);
+        preparedStatement.setString(4, customer.getIdentityKey());
+        preparedStatement.setInt(5, customer.getId());
     }
 
-    @Override
-    public boolean delete(Integer id) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM Customer WHERE id = ?");
-        preparedStatement.setInt(1, id);
-        int rowsAffected = preparedStatement.executeUpdate();
-        preparedStatement.close();
-        // Delete all reservations for this customer
-        preparedStatement = connection.prepareStatement("DELETE FROM Reservation WHERE customerId = ?");
-        preparedStatement.setInt(1, id);
-        preparedStatement.executeUpdate();
-        preparedStatement.close();
-        Database.closeConnection(connection);
-        return rowsAffected > 0;
+    private static Customer mapCustomer(ResultSet resultSet) throws SQLException {
+        Customer customer = new Customer(resultSet.getInt("id"), resultSet.getString("name"), resultSet.getString("address"), resultSet.getString("phone"));
+        customer.setIdentityKey(resultSet.getString("identityKey"));
+        return customer;
     }
-
 }
@@ -0,0 +1,49 @@
+package dao;
+
+import domainModel.ImportCheckpoint;
+
+import java.sql.*;
+
+public class SQLiteImportCheckpointDAO implements ImportCheckpointDAO {
+
+    @Override
+    public ImportCheckpoint get(String source) throws Exception {
+        ImportCheckpoint checkpoint = null;
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM ImportCheckpoint WHERE source = ?")) {
+            preparedStatement.setString(1, source);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    Date lastArrivalDate = resultSet.getDate("lastArrivalDate");
+                    checkpoint = new ImportCheckpoint(source, resultSet.getLong("taxesLength"), resultSet.getString("taxesHash"), resultSet.getLong("reservationsLength"), resultSet.getString("reservationsHash"), resultSet.getString("lastConfirmationCode"), lastArrivalDate == null ? null : lastArrivalDate.toLocalDate(), resultSet.getBoolean("completed"));
+                }
+            }
+        }
+        return checkpoint;
+    }
+
+    @Override
+    public void save(ImportCheckpoint checkpoint) throws Exception {
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("INSERT OR REPLACE INTO ImportCheckpoint (source, taxesLength, taxesHash, reservationsLength, reservationsHash, lastConfirmationCode, lastArrivalDate, completed) VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+            preparedStatement.setString(1, checkpoint.getSource());
+            preparedStatement.setLong(2, checkpoint.getTaxesLength());
+            preparedStatement.setString(3, checkpoint.getTaxesHash());
+            preparedStatement.setLong(4, checkpoint.getReservationsLength());
+            preparedStatement.setString(5, checkpoint.getReservationsHash());
+            preparedStatement.setString(6, checkpoint.getLastConfirmationCode());
+            preparedStatement.setDate(7, checkpoint.getLastArrivalDate() == null ? null : Date.valueOf(checkpoint.getLastArrivalDate()));
+            preparedStatement.setBoolean(8, checkpoint.isCompleted());
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    @Override
+    public boolean delete(String source) throws Exception {
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM ImportCheckpoint WHERE source = ?")) {
+            preparedStatement.setString(1, source);
+            return preparedStatement.executeUpdate() > 0;
+        }
+    }
+}
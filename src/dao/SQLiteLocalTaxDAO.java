@@ -1,139 +1,180 @@
 package dao;
 
 import domainModel.LocalTax;
+import domainModel.Money;
 
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.stream.Stream;
 
 
 public class SQLiteLocalTaxDAO implements LocalTaxDAO{
+    private static final String INSERT = "INSERT INTO LocalTax VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE = "UPDATE LocalTax SET description = ?, amount = ?, target = ?, daysThreshold = ?, startDate = ?, endDate = ? WHERE id = ?";
 
     @Override
     public int getNextId() throws Exception {
-        Connection connection = Database.getConnection();
-        Statement statement = connection.createStatement();
-        ResultSet resultSet = statement.executeQuery("SELECT MAX(id) FROM LocalTax");
-        int id = resultSet.getInt(1);
-        resultSet.close();
-        statement.close();
-        return id + 1;
+        return IDGenerator.getNextId("LocalTax");
     }
 
     @Override
     public void insert(domainModel.LocalTax localTax) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO LocalTax VALUES (?, ?, ?, ?, ?, ?, ?)");
-        preparedStatement.setInt(1, getNextId());
-        preparedStatement.setString(2, localTax.getDescription());
-        preparedStatement.setDouble(3, localTax.getAmount());
-        preparedStatement.setString(4, localTax.getTarget());
-        preparedStatement.setInt(5, localTax.getDaysThreshold());
-        preparedStatement.setDate(6, Date.valueOf(localTax.getStartDate()));
-        preparedStatement.setDate(7, Date.valueOf(localTax.getEndDate()));
-        preparedStatement.executeUpdate();
-        preparedStatement.close();
+        // The id is reserved before borrowing the connection, reserving a block needs a connection of its own
+        localTax.setId(getNextId());
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(INSERT)) {
+            bindInsert(preparedStatement, localTax);
+            preparedStatement.executeUpdate();
+        }
     }
 
     @Override
     public LocalTax get(Integer id) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM LocalTax WHERE id = ?");
-        preparedStatement.setInt(1, id);
-        ResultSet resultSet = preparedStatement.executeQuery();
         domainModel.LocalTax localTax = null;
-        if (resultSet.next()) {
-            localTax = new LocalTax(
-                    resultSet.getString("description"),
-                    resultSet.getDouble("amount"),
-                    resultSet.getString("target"),
-                    resultSet.getInt("daysThreshold"),
-                    resultSet.getDate("startDate").toLocalDate(),
-                    resultSet.getDate("endDate").toLocalDate()
-            );
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM LocalTax WHERE id = ?")) {
+            preparedStatement.setInt(1, id);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    localTax = new LocalTax(
+                            resultSet.getString("description"),
+                            resultSet.getDouble("amount"),
+                            resultSet.getString("target"),
+                            resultSet.getInt("daysThreshold"),
+                            resultSet.getDate("startDate").toLocalDate(),
+                            resultSet.getDate("endDate").toLocalDate()
+                    );
+                }
+            }
         }
-        resultSet.close();
-        preparedStatement.close();
         return localTax;
     }
 
     @Override
     public void update(domainModel.LocalTax localTax) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("UPDATE LocalTax SET description = ?, amount = ?, target = ?, daysThreshold = ?, startDate = ?, endDate = ? WHERE id = ?");
-        preparedStatement.setString(1, localTax.getDescription());
-        preparedStatement.setDouble(2, localTax.getAmount());
-        preparedStatement.setString(3, localTax.getTarget());
-        preparedStatement.setInt(4, localTax.getDaysThreshold());
-        preparedStatement.setDate(5, Date.valueOf(localTax.getStartDate()));
-        preparedStatement.setDate(6, Date.valueOf(localTax.getEndDate()));
-        preparedStatement.setInt(7, localTax.getId());
-        preparedStatement.executeUpdate();
-        preparedStatement.close();
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(UPDATE)) {
+            bindUpdate(preparedStatement, localTax);
+            preparedStatement.executeUpdate();
+        }
     }
 
     @Override
     public boolean delete(Integer id) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM LocalTax WHERE id = ?");
-        preparedStatement.setInt(1, id);
-        int rowsAffected = preparedStatement.executeUpdate();
-        preparedStatement.close();
-        return rowsAffected > 0;
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM LocalTax WHERE id = ?")) {
+            preparedStatement.setInt(1, id);
+            return preparedStatement.executeUpdate() > 0;
+        }
+    }
+
+    @Override
+    public void insertAll(Collection<LocalTax> localTaxes) throws Exception {
+        if (localTaxes.isEmpty()) {
+            return;
+        }
+        int id = IDGenerator.getNextIds("LocalTax", localTaxes.size());
+        for (LocalTax localTax : localTaxes) {
+            localTax.setId(id++);
+        }
+        BatchStatement.execute(INSERT, localTaxes, SQLiteLocalTaxDAO::bindInsert);
+    }
+
+    @Override
+    public void updateAll(Collection<LocalTax> localTaxes) throws Exception {
+        BatchStatement.execute(UPDATE, localTaxes, SQLiteLocalTaxDAO::bindUpdate);
+    }
+
+    @Override
+    public int deleteAll(Collection<Integer> ids) throws Exception {
+        return BatchStatement.execute("DELETE FROM LocalTax WHERE id = ?", ids, (preparedStatement, id) -> preparedStatement.setInt(1, id));
     }
 
     @Override
     public java.util.ArrayList<domainModel.LocalTax> getAll() throws Exception {
-        Connection connection = Database.getConnection();
-        Statement statement = connection.createStatement();
-        ResultSet resultSet = statement.executeQuery("SELECT * FROM LocalTax");
         java.util.ArrayList<domainModel.LocalTax> localTaxes = new java.util.ArrayList<>();
-        while (resultSet.next()) {
-            domainModel.LocalTax localTax = new LocalTax(
-                    resultSet.getString("description"),
-                    resultSet.getDouble("amount"),
-                    resultSet.getString("target"),
-                    resultSet.getInt("daysThreshold"),
-                    resultSet.getDate("startDate").toLocalDate(),
-                    resultSet.getDate("endDate").toLocalDate()
-            );
-            localTax.setId(resultSet.getInt("id"));
-            localTaxes.add(localTax);
+        try (Connection connection = Database.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM LocalTax")) {
+            while (resultSet.next()) {
+                localTaxes.add(mapLocalTax(resultSet));
+            }
         }
-        resultSet.close();
-        statement.close();
         return localTaxes;
     }
 
 
     public ArrayList<LocalTax> getLocalTaxesByTarget(String target, LocalDate startDate, LocalDate endDate) throws Exception {
         // Get all taxes that intersect with the given date range
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM LocalTax WHERE target = ? AND ((startDate <= ? AND endDate >= ?) OR (startDate <= ? AND endDate >= ?) OR (startDate >= ? AND endDate <= ?))");
-        preparedStatement.setString(1, target);
-        preparedStatement.setDate(2, Date.valueOf(startDate));
-        preparedStatement.setDate(3, Date.valueOf(startDate));
-        preparedStatement.setDate(4, Date.valueOf(endDate));
-        preparedStatement.setDate(5, Date.valueOf(endDate));
-        preparedStatement.setDate(6, Date.valueOf(startDate));
-        preparedStatement.setDate(7, Date.valueOf(endDate));
-        ResultSet resultSet = preparedStatement.executeQuery();
         ArrayList<LocalTax> localTaxes = new ArrayList<>();
-        while (resultSet.next()) {
-            LocalTax localTax = new LocalTax(
-                    resultSet.getString("description"),
-                    resultSet.getDouble("amount"),
-                    resultSet.getString("target"),
-                    resultSet.getInt("daysThreshold"),
-                    resultSet.getDate("startDate").toLocalDate(),
-                    resultSet.getDate("endDate").toLocalDate()
-            );
-            localTax.setId(resultSet.getInt("id"));
-            localTaxes.add(localTax);
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = prepareLocalTaxesByTarget(connection, target, startDate, endDate);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                localTaxes.add(mapLocalTax(resultSet));
+            }
         }
-        resultSet.close();
-        preparedStatement.close();
         return localTaxes;
     }
 
+    private static PreparedStatement prepareLocalTaxesByTarget(Connection connection, String target, LocalDate startDate, LocalDate endDate) throws SQLException {
+        PreparedStatement preparedStatement;
+        if (Database.isIntervalIndexEnabled()) {
+            // R*Tree storage mode: the taxes in force on at least one day of the range are found with a range query
+            preparedStatement = connection.prepareStatement("SELECT * FROM LocalTax WHERE target = ? AND id IN (SELECT id FROM LocalTaxInterval WHERE startDay <= ? AND endDay >= ?)");
+            preparedStatement.setString(1, target);
+            preparedStatement.setLong(2, Database.toIndexDay(endDate));
+            preparedStatement.setLong(3, Database.toIndexDay(startDate));
+        } else {
+            preparedStatement = connection.prepareStatement("SELECT * FROM LocalTax WHERE target = ? AND ((startDate <= ? AND endDate >= ?) OR (startDate <= ? AND endDate >= ?) OR (startDate >= ? AND endDate <= ?))");
+            preparedStatement.setString(1, target);
+            preparedStatement.setDate(2, Date.valueOf(startDate));
+            preparedStatement.setDate(3, Date.valueOf(startDate));
+            preparedStatement.setDate(4, Date.valueOf(endDate));
+            preparedStatement.setDate(5, Date.valueOf(endDate));
+            preparedStatement.setDate(6, Date.valueOf(startDate));
+            preparedStatement.setDate(7, Date.valueOf(endDate));
+        }
+        return preparedStatement;
+    }
+
+    @Override
+    public Stream<LocalTax> stream() throws Exception {
+        return ResultSetStream.of(connection -> connection.prepareStatement("SELECT * FROM LocalTax"), SQLiteLocalTaxDAO::mapLocalTax);
+    }
+
+    private static void bindInsert(PreparedStatement preparedStatement, LocalTax localTax) throws SQLException {
+        preparedStatement.setInt(1, localTax.getId());
+        preparedStatement.setString(2, localTax.getDescription());
+        preparedStatement.setDouble(3, Money.toAmount(localTax.getAmountCents()));
+        preparedStatement.setString(4, localTax.getTarget());
+        preparedStatement.setInt(5, localTax.getDaysThreshold());
+        preparedStatement.setDate(6, Date.valueOf(localTax.getStartDate()));
+        preparedStatement.setDate(7, Date.valueOf(localTax.getEndDate()));
+    }
+
+    private static void bindUpdate(PreparedStatement preparedStatement, LocalTax localTax) throws SQLException {
+        preparedStatement.setString(1, localTax.getDescription());
+        preparedStatement.setDouble(2, Money.toAmount(localTax.getAmountCents()));
+        preparedStatement.setString(3, localTax.getTarget());
+        preparedStatement.setInt(4, localTax.getDaysThreshold());
+        preparedStatement.setDate(5, Date.valueOf(localTax.getStartDate()));
+        preparedStatement.setDate(6, Date.valueOf(localTax.getEndDate()));
+        preparedStatement.setInt(7, localTax.getId());
+    }
+
+    private static LocalTax mapLocalTax(ResultSet resultSet) throws SQLException {
+        LocalTax localTax = new LocalTax(
+                resultSet.getString("description"),
+                resultSet.getDouble("amount"),
+                resultSet.getString("target"),
+                resultSet.getInt("daysThreshold"),
+                resultSet.getDate("startDate").toLocalDate(),
+                resultSet.getDate("endDate").toLocalDate()
+        );
+        localTax.setId(resultSet.getInt("id"));
+        return localTax;
+    }
 }
@@ -0,0 +1,55 @@
+package dao;
+
+import domainModel.MonthlyRollup;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+
+public class SQLiteMonthlyRollupDAO implements MonthlyRollupDAO {
+    // Upsert that adds the values to the row of the same key
+    private static final String ADD = "INSERT INTO MonthlyRollup (accommodationId, year, month, target, nights, guests, declaredCityTaxCents, revenueCents, evaluatedCityTaxCents) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) "
+            + "ON CONFLICT (accommodationId, year, month, target) DO UPDATE SET nights = nights + excluded.nights, guests = guests + excluded.guests, declaredCityTaxCents = declaredCityTaxCents + excluded.declaredCityTaxCents, "
+            + "revenueCents = revenueCents + excluded.revenueCents, evaluatedCityTaxCents = evaluatedCityTaxCents + excluded.evaluatedCityTaxCents";
+
+    @Override
+    public void add(Collection<MonthlyRollup> rollups) throws Exception {
+        BatchStatement.execute(ADD, rollups, (preparedStatement, rollup) -> {
+            preparedStatement.setInt(1, rollup.getAccommodationId());
+            preparedStatement.setInt(2, rollup.getYear());
+            preparedStatement.setInt(3, rollup.getMonth());
+            preparedStatement.setString(4, rollup.getTarget());
+            preparedStatement.setInt(5, rollup.getNights());
+            preparedStatement.setInt(6, rollup.getGuests());
+            preparedStatement.setLong(7, rollup.getDeclaredCityTaxCents());
+            preparedStatement.setLong(8, rollup.getRevenueCents());
+            preparedStatement.setLong(9, rollup.getEvaluatedCityTaxCents());
+        });
+    }
+
+    @Override
+    public ArrayList<MonthlyRollup> getAccommodationRollups(int accommodationId, int firstYear, int firstMonth, int lastYear, int lastMonth) throws Exception {
+        ArrayList<MonthlyRollup> rollups = new ArrayList<>();
+        try (Connection connection = Database.getConnection();
+             // Range scan on the primary key
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM MonthlyRollup WHERE accommodationId = ? AND year * 100 + month BETWEEN ? AND ? ORDER BY year, month, target")) {
+            preparedStatement.setInt(1, accommodationId);
+            preparedStatement.setInt(2, firstYear * 100 + firstMonth);
+            preparedStatement.setInt(3, lastYear * 100 + lastMonth);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    rollups.add(new MonthlyRollup(resultSet.getInt("accommodationId"), resultSet.getInt("year"), resultSet.getInt("month"), resultSet.getString("target"), resultSet.getInt("nights"), resultSet.getInt("guests"), resultSet.getLong("declaredCityTaxCents"), resultSet.getLong("revenueCents"), resultSet.getLong("evaluatedCityTaxCents")));
+                }
+            }
+        }
+        return rollups;
+    }
+
+    @Override
+    public int deleteAll() throws Exception {
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM MonthlyRollup")) {
+            return preparedStatement.executeUpdate();
+        }
+    }
+}
@@ -2,272 +2,400 @@ package dao;
 
 import domainModel.Accommodation;
 import domainModel.Apartment;
+import domainModel.Customer;
+import domainModel.Money;
 import domainModel.Room;
 import domainModel.Reservation;
 
 import java.time.LocalDate;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class SQLiteReservationDAO implements ReservationDAO {
+    // Reservations are always read together with their accommodation and customer, so that the whole
+    // reservation is built from a single row instead of querying the other DAOs for each reservation.
+    // Apartments and rooms share the same id space, so at most one of the two joins matches.
+    private static final String SELECT_RESERVATION = "SELECT Reservation.id, Reservation.accommodationId, Reservation.arrivalDate, Reservation.departureDate, Reservation.numberOfGuests, Reservation.numberOfChildren, Reservation.numberOfInfants, Reservation.customerId, Reservation.price, Reservation.dateOfReservation, Reservation.cityTaxAmount, Reservation.confirmationCode, "
+            + "Apartment.id AS apartmentId, Apartment.description AS apartmentDescription, Apartment.maxGuestsAllowed AS apartmentMaxGuestsAllowed, Apartment.numberOfRooms, Apartment.numberOfBathrooms, Apartment.numberOfBedrooms, Apartment.numberOfBeds, "
+            + "Room.id AS roomId, Room.description AS roomDescription, Room.maxGuestsAllowed AS roomMaxGuestsAllowed, Room.hasPrivateBathroom, Room.hasKitchen, "
+            + "Customer.id AS joinedCustomerId, Customer.name AS customerName, Customer.address AS customerAddress, Customer.phone AS customerPhone, Customer.identityKey AS customerIdentityKey "
+            + "FROM Reservation "
+            + "LEFT JOIN Apartment ON Apartment.id = Reservation.accommodationId "
+            + "LEFT JOIN Room ON Room.id = Reservation.accommodationId "
+            + "LEFT JOIN Customer ON Customer.id = Reservation.customerId";
+
+    // Anti-join used by the searches: the accommodation has no reservation intersecting the period.
+    // The parameters are the end and the start of the period, and the lookup is a range scan on the
+    // (accommodationId, arrivalDate, departureDate) index.
+    private static final String NOT_BOOKED = "NOT EXISTS (SELECT 1 FROM Reservation WHERE Reservation.accommodationId = %1$s.id AND Reservation.arrivalDate < ? AND Reservation.departureDate > ?)";
+    // Same anti-join in the R*Tree storage mode, the parameters are days
+    private static final String NOT_BOOKED_INTERVAL = "NOT EXISTS (SELECT 1 FROM ReservationInterval WHERE ReservationInterval.minAccommodationId <= %1$s.id AND ReservationInterval.maxAccommodationId >= %1$s.id AND ReservationInterval.startDay < ? AND ReservationInterval.endDay > ?)";
+    // Reservations of an accommodation intersecting a period in the R*Tree storage mode,
+    // the parameters are the accommodation id twice, then the end and the start day of the period
+    private static final String BOOKED_INTERVAL = "Reservation.id IN (SELECT id FROM ReservationInterval WHERE minAccommodationId <= ? AND maxAccommodationId >= ? AND startDay < ? AND endDay > ?)";
+
+    private static final String INSERT = "INSERT INTO Reservation (id, accommodationId, arrivalDate, departureDate, numberOfGuests, numberOfChildren, numberOfInfants, customerId, price, dateOfReservation, cityTaxAmount, confirmationCode) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE = "UPDATE Reservation SET accommodationId = ?, arrivalDate = ?, departureDate = ?, numberOfGuests = ?, numberOfChildren = ?, numberOfInfants = ?, customerId = ?, price = ?, dateOfReservation = ?, cityTaxAmount = ?, confirmationCode = ? WHERE id = ?";
+
     @Override
     public int getNextId() throws Exception {
-        Connection connection = Database.getConnection();
-        Statement statement = connection.createStatement();
-        ResultSet resultSet = statement.executeQuery("SELECT MAX(id) FROM Reservation");
-        int id = resultSet.getInt(1);
-        resultSet.close();
-        statement.close();
-        Database.closeConnection(connection);
-        return id + 1;
-    }
-
-    public int getCurrentId() throws Exception {
-        Connection connection = Database.getConnection();
-        Statement statement = connection.createStatement();
-        ResultSet resultSet = statement.executeQuery("SELECT MAX(id) FROM Reservation");
-        int id = resultSet.getInt(1);
-        resultSet.close();
-        statement.close();
-        Database.closeConnection(connection);
-        return id;
+        return IDGenerator.getNextId("Reservation");
     }
 
     @Override
     public Reservation get(Integer id) throws Exception {
-        Connection connection = Database.getConnection();
         Reservation reservation = null;
-        PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Reservation WHERE id = ?");
-        preparedStatement.setInt(1, id);
-        ResultSet resultSet = preparedStatement.executeQuery();
-        // Check if the reservation is for an apartment or a room
-        ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
-        CustomerDAO customerDAO = new SQLiteCustomerDAO();
-        RoomDAO roomDAO = new SQLiteRoomDAO();
-        if (resultSet.next()) {
-            if (apartmentDAO.get(resultSet.getInt("accommodationId")) != null) {
-                reservation = new Reservation(id, apartmentDAO.get(resultSet.getInt("accommodationId")), resultSet.getDate("arrivalDate").toLocalDate(), resultSet.getDate("departureDate").toLocalDate(), resultSet.getInt("numberOfGuests"), resultSet.getInt("numberOfChildren"), resultSet.getInt("numberOfInfants"), customerDAO.get(resultSet.getInt("customerId")), resultSet.getDouble("price"), resultSet.getDate("dateOfReservation").toLocalDate(), resultSet.getDouble("cityTaxAmount"));
-            } else {
-                if (roomDAO.get(resultSet.getInt("accommodationId")) != null)
-                    reservation = new Reservation(id, roomDAO.get(resultSet.getInt("accommodationId")), resultSet.getDate("arrivalDate").toLocalDate(), resultSet.getDate("departureDate").toLocalDate(), resultSet.getInt("numberOfGuests"), resultSet.getInt("numberOfChildren"), resultSet.getInt("numberOfInfants"),customerDAO.get(resultSet.getInt("customerId")), resultSet.getDouble("price"), resultSet.getDate("dateOfReservation").toLocalDate(), resultSet.getDouble("cityTaxAmount"));
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(SELECT_RESERVATION + " WHERE Reservation.id = ?")) {
+            preparedStatement.setInt(1, id);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    reservation = mapReservation(resultSet);
+                }
             }
         }
-        resultSet.close();
-        preparedStatement.close();
-        Database.closeConnection(connection);
         return reservation;
     }
 
     @Override
     public ArrayList<Reservation> getAll() throws Exception {
-        Connection connection = Database.getConnection();
-        ArrayList<Reservation> reservations = new ArrayList<>();
-        Statement statement = connection.createStatement();
-        ResultSet resultSet = statement.executeQuery("SELECT * FROM Reservation");
-
-        ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
-        CustomerDAO customerDAO = new SQLiteCustomerDAO();
-        RoomDAO roomDAO = new SQLiteRoomDAO();
-        while (resultSet.next()) {
-            Reservation reservation = null;
-            if (apartmentDAO.get(resultSet.getInt("accommodationId")) != null) {
-                reservation = new Reservation(resultSet.getInt("id"), apartmentDAO.get(resultSet.getInt("accommodationId")), resultSet.getDate("arrivalDate").toLocalDate(), resultSet.getDate("departureDate").toLocalDate(), resultSet.getInt("numberOfGuests"), resultSet.getInt("numberOfChildren"), resultSet.getInt("numberOfInfants"), customerDAO.get(resultSet.getInt("customerId")), resultSet.getDouble("price"), resultSet.getDate("dateOfReservation").toLocalDate(), resultSet.getDouble("cityTaxAmount"));
-            } else {
-                if (roomDAO.get(resultSet.getInt("accommodationId")) != null)
-                    reservation = new Reservation(resultSet.getInt("id"), roomDAO.get(resultSet.getInt("accommodationId")), resultSet.getDate("arrivalDate").toLocalDate(), resultSet.getDate("departureDate").toLocalDate(), resultSet.getInt("numberOfGuests"), resultSet.getInt("numberOfChildren"), resultSet.getInt("numberOfInfants"), customerDAO.get(resultSet.getInt("customerId")), resultSet.getDouble("price"), resultSet.getDate("dateOfReservation").toLocalDate(), resultSet.getDouble("cityTaxAmount"));
-            }
-            reservations.add(reservation);
-        }
+        return collect(stream());
+    }
 
-        resultSet.close();
-        statement.close();
-        Database.closeConnection(connection);
-        return reservations;
+    @Override
+    public Stream<Reservation> stream() throws Exception {
+        return ResultSetStream.of(connection -> connection.prepareStatement(SELECT_RESERVATION), this::mapReservation);
     }
 
     @Override
     public void insert(Reservation reservation) throws Exception {
-        Connection connection = Database.getConnection();
-        reservation.setId(getNextId());
-        PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO Reservation (id, accommodationId, arrivalDate, departureDate, numberOfGuests, numberOfChildren, numberOfInfants, customerId, price, dateOfReservation, cityTaxAmount) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
         // Get the next id using IDGenerator and ignore the id passed as a parameter
-        preparedStatement.setInt(1, reservation.getId());
-        preparedStatement.setInt(2, reservation.getAccommodation().getId());
-        preparedStatement.setDate(3, Date.valueOf(reservation.getArrivalDate()));
-        preparedStatement.setDate(4, Date.valueOf(reservation.getDepartureDate()));
-        preparedStatement.setInt(5, reservation.getNumberOfGuests());
-        preparedStatement.setInt(6, reservation.getNumberOfChildren());
-        preparedStatement.setInt(7, reservation.getNumberOfInfants());
-        preparedStatement.setInt(8, reservation.getCustomer().getId());
-        preparedStatement.setDouble(9, reservation.getPrice());
-        preparedStatement.setDate(10, Date.valueOf(reservation.getDateOfReservation()));
-        preparedStatement.setDouble(11, reservation.getCityTaxAmount());
-        preparedStatement.executeUpdate();
-        preparedStatement.close();
-        Database.closeConnection(connection);
+        reservation.setId(getNextId());
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(INSERT)) {
+            bindInsert(preparedStatement, reservation);
+            preparedStatement.executeUpdate();
+        }
+        AvailabilityIndex.getInstance().add(reservation);
     }
 
     @Override
     public void update(Reservation reservation) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("UPDATE Reservation SET accommodationId = ?, arrivalDate = ?, departureDate = ?, numberOfGuests = ?, numberOfChildren = ?, numberOfInfants = ?, customerId = ?, price = ?, dateOfReservation = ?, cityTaxAmount = ? WHERE id = ?");
-        preparedStatement.setInt(1, reservation.getAccommodation().getId());
-        preparedStatement.setDate(2, Date.valueOf(reservation.getArrivalDate()));
-        preparedStatement.setDate(3, Date.valueOf(reservation.getDepartureDate()));
-        preparedStatement.setInt(4, reservation.getNumberOfGuests());
-        preparedStatement.setInt(5, reservation.getNumberOfChildren());
-        preparedStatement.setInt(6, reservation.getNumberOfInfants());
-        preparedStatement.setInt(7, reservation.getCustomer().getId());
-        preparedStatement.setDouble(8, reservation.getPrice());
-        preparedStatement.setDate(9, Date.valueOf(reservation.getDateOfReservation()));
-        preparedStatement.setDouble(10, reservation.getCityTaxAmount());
-        preparedStatement.setInt(11, reservation.getId());
-        preparedStatement.executeUpdate();
-        preparedStatement.close();
-        Database.closeConnection(connection);
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(UPDATE)) {
+            bindUpdate(preparedStatement, reservation);
+            preparedStatement.executeUpdate();
+        }
+        AvailabilityIndex.getInstance().update(reservation);
     }
 
     @Override
     public boolean delete(Integer id) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM Reservation WHERE id = ?");
-        preparedStatement.setInt(1, id);
-        int rowsAffected = preparedStatement.executeUpdate();
-        preparedStatement.close();
-        Database.closeConnection(connection);
+        int rowsAffected;
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM Reservation WHERE id = ?")) {
+            preparedStatement.setInt(1, id);
+            rowsAffected = preparedStatement.executeUpdate();
+        }
+        AvailabilityIndex.getInstance().remove(id);
         return rowsAffected > 0;
     }
 
+    @Override
+    public void insertAll(Collection<Reservation> reservations) throws Exception {
+        if (reservations.isEmpty()) {
+            return;
+        }
+        int id = IDGenerator.getNextIds("Reservation", reservations.size());
+        for (Reservation reservation : reservations) {
+            reservation.setId(id++);
+        }
+        BatchStatement.execute(INSERT, reservations, SQLiteReservationDAO::bindInsert);
+        for (Reservation reservation : reservations) {
+            AvailabilityIndex.getInstance().add(reservation);
+        }
+    }
+
+    @Override
+    public void updateAll(Collection<Reservation> reservations) throws Exception {
+        BatchStatement.execute(UPDATE, reservations, SQLiteReservationDAO::bindUpdate);
+        for (Reservation reservation : reservations) {
+            AvailabilityIndex.getInstance().update(reservation);
+        }
+    }
+
+    @Override
+    public int deleteAll(Collection<Integer> ids) throws Exception {
+        int rowsAffected = BatchStatement.execute("DELETE FROM Reservation WHERE id = ?", ids, (preparedStatement, id) -> preparedStatement.setInt(1, id));
+        for (int id : ids) {
+            AvailabilityIndex.getInstance().remove(id);
+        }
+        return rowsAffected;
+    }
+
     @Override
     public boolean checkAvailability(Accommodation accommodation, LocalDate startDate, LocalDate endDate) throws SQLException {
-        Connection connection = Database.getConnection();
-        // Prepare a statement to check if there is a reservation for the apartment in an intersecting date range
-        PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Reservation WHERE accommodationId = ? AND NOT ((arrivalDate >= ? AND arrivalDate >= ?) OR (departureDate <= ? AND departureDate <= ?))");
-        preparedStatement.setInt(1, accommodation.getId());
-        preparedStatement.setDate(2, Date.valueOf(startDate));
-        preparedStatement.setDate(3, Date.valueOf(endDate));
-        preparedStatement.setDate(4, Date.valueOf(startDate));
-        preparedStatement.setDate(5, Date.valueOf(endDate));
-        ResultSet resultSet = preparedStatement.executeQuery();
-        // If there is a reservation for the apartment in an intersecting date range, it is not available
-        boolean available = !resultSet.next();
-        resultSet.close();
-        preparedStatement.close();
-        Database.closeConnection(connection);
-        return available;
+        if (!Database.isIntervalIndexEnabled()) {
+            // Answered by the in-memory index: there is a reservation for the accommodation in an intersecting date range
+            // if its interval tree holds an overlapping period
+            return AvailabilityIndex.getInstance().isAvailable(accommodation.getId(), startDate, endDate);
+        }
+        // In the R*Tree storage mode the same question is a box query on ReservationInterval
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT 1 FROM ReservationInterval WHERE minAccommodationId <= ? AND maxAccommodationId >= ? AND startDay < ? AND endDay > ? LIMIT 1")) {
+            preparedStatement.setInt(1, accommodation.getId());
+            preparedStatement.setInt(2, accommodation.getId());
+            preparedStatement.setLong(3, Database.toIndexDay(endDate));
+            preparedStatement.setLong(4, Database.toIndexDay(startDate));
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return !resultSet.next();
+            }
+        }
     }
 
     @Override
     public ArrayList<Apartment> getAvailableApartments(LocalDate startDate, LocalDate endDate, int numberOfGuests) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Apartment WHERE Apartment.maxGuestsAllowed >= ? AND Apartment.id NOT IN (SELECT accommodationId FROM Reservation WHERE NOT ((arrivalDate >= ? AND arrivalDate >= ?) OR (departureDate <= ? AND departureDate <= ?)))");
-        preparedStatement.setInt(1, numberOfGuests);
-        preparedStatement.setDate(2, Date.valueOf(startDate));
-        preparedStatement.setDate(3, Date.valueOf(endDate));
-        preparedStatement.setDate(4, Date.valueOf(startDate));
-        preparedStatement.setDate(5, Date.valueOf(endDate));
-        ResultSet resultSet = preparedStatement.executeQuery();
         ArrayList<Apartment> availableApartments = new ArrayList<>();
-        ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
-        while (resultSet.next()) {
-            if (checkAvailability(apartmentDAO.get(resultSet.getInt("id")), startDate, endDate)) {
-                availableApartments.add(new Apartment(resultSet.getInt("id"), resultSet.getString("description"), resultSet.getInt("maxGuestsAllowed"), resultSet.getInt("numberOfRooms"), resultSet.getInt("numberOfBathrooms"), resultSet.getInt("numberOfBedrooms"), resultSet.getInt("numberOfBeds")));
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Apartment WHERE Apartment.maxGuestsAllowed >= ? AND " + notBooked("Apartment"))) {
+            preparedStatement.setInt(1, numberOfGuests);
+            setPeriod(preparedStatement, 2, startDate, endDate);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    availableApartments.add(mapApartment(resultSet));
+                }
             }
         }
-        resultSet.close();
-        preparedStatement.close();
-        Database.closeConnection(connection);
         return availableApartments;
     }
 
     @Override
     public ArrayList<Room> getAvailableRooms(LocalDate startDate, LocalDate endDate, int numberOfGuests) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Room WHERE Room.maxGuestsAllowed >= ? AND Room.id NOT IN (SELECT accommodationId FROM Reservation WHERE NOT ((arrivalDate >= ? AND arrivalDate >= ?) OR (departureDate <= ? AND departureDate <= ?)))");
-        preparedStatement.setInt(1, numberOfGuests);
-        preparedStatement.setDate(2, Date.valueOf(startDate));
-        preparedStatement.setDate(3, Date.valueOf(endDate));
-        preparedStatement.setDate(4, Date.valueOf(startDate));
-        preparedStatement.setDate(5, Date.valueOf(endDate));
-        ResultSet resultSet = preparedStatement.executeQuery();
         ArrayList<Room> availableRooms = new ArrayList<>();
-        RoomDAO roomDAO = new SQLiteRoomDAO();
-        while (resultSet.next()) {
-            if (checkAvailability(roomDAO.get(resultSet.getInt("id")), startDate, endDate)) {
-                availableRooms.add(new Room(resultSet.getInt("id"), resultSet.getString("description"), resultSet.getInt("maxGuestsAllowed"), resultSet.getBoolean("hasPrivateBathroom"), resultSet.getBoolean("hasKitchen")));
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Room WHERE Room.maxGuestsAllowed >= ? AND " + notBooked("Room"))) {
+            preparedStatement.setInt(1, numberOfGuests);
+            setPeriod(preparedStatement, 2, startDate, endDate);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    availableRooms.add(mapRoom(resultSet));
+                }
             }
         }
-        resultSet.close();
-        preparedStatement.close();
-        Database.closeConnection(connection);
         return availableRooms;
     }
 
     @Override
-    public ArrayList<Reservation> getAccommodationReservations(int accommodationId) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Reservation WHERE accommodationId = ?");
-        preparedStatement.setInt(1, accommodationId);
-        ResultSet resultSet = preparedStatement.executeQuery();
-        ArrayList<Reservation> reservations = new ArrayList<>();
-        while (resultSet.next()) {
-            Reservation reservation = null;
-            ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
-            CustomerDAO customerDAO = new SQLiteCustomerDAO();
-            if (apartmentDAO.get(resultSet.getInt("accommodationId")) != null) {
-                reservation = new Reservation(resultSet.getInt("id"), apartmentDAO.get(resultSet.getInt("accommodationId")), resultSet.getDate("arrivalDate").toLocalDate(), resultSet.getDate("departureDate").toLocalDate(), resultSet.getInt("numberOfGuests"), resultSet.getInt("numberOfChildren"), resultSet.getInt("numberOfInfants"), customerDAO.get(resultSet.getInt("customerId")), resultSet.getDouble("price"), resultSet.getDate("dateOfReservation").toLocalDate(), resultSet.getDouble("cityTaxAmount"));
-            } else {
-                RoomDAO roomDAO = new SQLiteRoomDAO();
-                if (roomDAO.get(resultSet.getInt("accommodationId")) != null)
-                    reservation = new Reservation(resultSet.getInt("id"), roomDAO.get(resultSet.getInt("accommodationId")), resultSet.getDate("arrivalDate").toLocalDate(), resultSet.getDate("departureDate").toLocalDate(), resultSet.getInt("numberOfGuests"), resultSet.getInt("numberOfChildren"), resultSet.getInt("numberOfInfants"), customerDAO.get(resultSet.getInt("customerId")), resultSet.getDouble("price"), resultSet.getDate("dateOfReservation").toLocalDate(), resultSet.getDouble("cityTaxAmount"));
+    public ArrayList<Accommodation> getAvailableAccommodations(LocalDate startDate, LocalDate endDate, int numberOfGuests) throws Exception {
+        ArrayList<Accommodation> availableAccommodations = new ArrayList<>();
+        // Apartments and rooms are searched in the same statement, the columns that a type does not have are NULL
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(
+                     "SELECT 'apartment' AS type, id, description, maxGuestsAllowed, numberOfRooms, numberOfBathrooms, numberOfBedrooms, numberOfBeds, NULL AS hasPrivateBathroom, NULL AS hasKitchen FROM Apartment WHERE Apartment.maxGuestsAllowed >= ? AND " + notBooked("Apartment")
+                     + " UNION ALL "
+                     + "SELECT 'room' AS type, id, description, maxGuestsAllowed, NULL, NULL, NULL, NULL, hasPrivateBathroom, hasKitchen FROM Room WHERE Room.maxGuestsAllowed >= ? AND " + notBooked("Room"))) {
+            preparedStatement.setInt(1, numberOfGuests);
+            setPeriod(preparedStatement, 2, startDate, endDate);
+            preparedStatement.setInt(4, numberOfGuests);
+            setPeriod(preparedStatement, 5, startDate, endDate);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    if (resultSet.getString("type").equals("apartment")) {
+                        availableAccommodations.add(mapApartment(resultSet));
+                    } else {
+                        availableAccommodations.add(mapRoom(resultSet));
+                    }
+                }
             }
-            reservations.add(reservation);
         }
-        resultSet.close();
-        preparedStatement.close();
-        Database.closeConnection(connection);
-        return reservations;
+        return availableAccommodations;
+    }
+
+    @Override
+    public ArrayList<Reservation> getAccommodationReservations(int accommodationId) throws Exception {
+        return collect(streamAccommodationReservations(accommodationId));
+    }
+
+    @Override
+    public Stream<Reservation> streamAccommodationReservations(int accommodationId) throws Exception {
+        return ResultSetStream.of(connection -> {
+            PreparedStatement preparedStatement = connection.prepareStatement(SELECT_RESERVATION + " WHERE Reservation.accommodationId = ?");
+            preparedStatement.setInt(1, accommodationId);
+            return preparedStatement;
+        }, this::mapReservation);
     }
 
     @Override
     public ArrayList<Reservation> getAccommodationMonthReservations(int accommodationId, int month, int year) throws Exception {
-        Connection connection = Database.getConnection();
-        // Get all reservation which period intersects with the month
-        PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Reservation WHERE accommodationId = ? AND NOT ((arrivalDate >= ? AND arrivalDate >= ?) OR (departureDate <= ? AND departureDate <= ?))");
-        preparedStatement.setInt(1, accommodationId);
-        preparedStatement.setDate(2, Date.valueOf(LocalDate.of(year, month, 1)));
-        preparedStatement.setDate(3, Date.valueOf(LocalDate.of(year, month, 1).plusMonths(1)));
-        preparedStatement.setDate(4, Date.valueOf(LocalDate.of(year, month, 1)));
-        preparedStatement.setDate(5, Date.valueOf(LocalDate.of(year, month, 1).plusMonths(1)));
-        ResultSet resultSet = preparedStatement.executeQuery();
-        ArrayList<Reservation> reservations = new ArrayList<>();
-        while (resultSet.next()) {
-            Reservation reservation = null;
-            ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
-            CustomerDAO customerDAO = new SQLiteCustomerDAO();
-            if (apartmentDAO.get(resultSet.getInt("accommodationId")) != null) {
-                reservation = new Reservation(resultSet.getInt("id"), apartmentDAO.get(resultSet.getInt("accommodationId")), resultSet.getDate("arrivalDate").toLocalDate(), resultSet.getDate("departureDate").toLocalDate(), resultSet.getInt("numberOfGuests"), resultSet.getInt("numberOfChildren"), resultSet.getInt("numberOfInfants"), customerDAO.get(resultSet.getInt("customerId")), resultSet.getDouble("price"), resultSet.getDate("dateOfReservation").toLocalDate(), resultSet.getDouble("cityTaxAmount"));
+        return collect(streamAccommodationMonthReservations(accommodationId, month, year));
+    }
+
+    @Override
+    public Stream<Reservation> streamAccommodationMonthReservations(int accommodationId, int month, int year) throws Exception {
+        LocalDate firstDay = LocalDate.of(year, month, 1);
+        return ResultSetStream.of(connection -> {
+            PreparedStatement preparedStatement;
+            // Get all reservation which period intersects with the month
+            if (Database.isIntervalIndexEnabled()) {
+                preparedStatement = connection.prepareStatement(SELECT_RESERVATION + " WHERE " + BOOKED_INTERVAL);
+                preparedStatement.setInt(1, accommodationId);
+                preparedStatement.setInt(2, accommodationId);
+                setPeriod(preparedStatement, 3, firstDay, firstDay.plusMonths(1));
             } else {
-                RoomDAO roomDAO = new SQLiteRoomDAO();
-                if (roomDAO.get(resultSet.getInt("accommodationId")) != null)
-                    reservation = new Reservation(resultSet.getInt("id"), roomDAO.get(resultSet.getInt("accommodationId")), resultSet.getDate("arrivalDate").toLocalDate(), resultSet.getDate("departureDate").toLocalDate(), resultSet.getInt("numberOfGuests"), resultSet.getInt("numberOfChildren"), resultSet.getInt("numberOfInfants"), customerDAO.get(resultSet.getInt("customerId")), resultSet.getDouble("price"), resultSet.getDate("dateOfReservation").toLocalDate(), resultSet.getDouble("cityTaxAmount"));
+                preparedStatement = connection.prepareStatement(SELECT_RESERVATION + " WHERE Reservation.accommodationId = ? AND NOT ((Reservation.arrivalDate >= ? AND Reservation.arrivalDate >= ?) OR (Reservation.departureDate <= ? AND Reservation.departureDate <= ?))");
+                preparedStatement.setInt(1, accommodationId);
+                preparedStatement.setDate(2, Date.valueOf(firstDay));
+                preparedStatement.setDate(3, Date.valueOf(firstDay.plusMonths(1)));
+                preparedStatement.setDate(4, Date.valueOf(firstDay));
+                preparedStatement.setDate(5, Date.valueOf(firstDay.plusMonths(1)));
             }
-            reservations.add(reservation);
-        }
-        resultSet.close();
-        preparedStatement.close();
-        Database.closeConnection(connection);
-        return reservations;
+            return preparedStatement;
+        }, this::mapReservation);
+    }
+
+    @Override
+    public Stream<Reservation> streamAccommodationPeriodReservations(int accommodationId, LocalDate startDate, LocalDate endDate) throws Exception {
+        return ResultSetStream.of(connection -> {
+            PreparedStatement preparedStatement;
+            if (Database.isIntervalIndexEnabled()) {
+                preparedStatement = connection.prepareStatement(SELECT_RESERVATION + " WHERE " + BOOKED_INTERVAL);
+                preparedStatement.setInt(1, accommodationId);
+                preparedStatement.setInt(2, accommodationId);
+                setPeriod(preparedStatement, 3, startDate, endDate);
+            } else {
+                // Range scan on the (accommodationId, arrivalDate, departureDate) index
+                preparedStatement = connection.prepareStatement(SELECT_RESERVATION + " WHERE Reservation.accommodationId = ? AND Reservation.arrivalDate < ? AND Reservation.departureDate > ?");
+                preparedStatement.setInt(1, accommodationId);
+                setPeriod(preparedStatement, 2, startDate, endDate);
+            }
+            return preparedStatement;
+        }, this::mapReservation);
+    }
+
+    @Override
+    public Stream<Reservation> streamPeriodReservations(LocalDate startDate, LocalDate endDate) throws Exception {
+        return ResultSetStream.of(connection -> {
+            PreparedStatement preparedStatement;
+            if (Database.isIntervalIndexEnabled()) {
+                preparedStatement = connection.prepareStatement(SELECT_RESERVATION + " WHERE Reservation.id IN (SELECT id FROM ReservationInterval WHERE startDay < ? AND endDay > ?)");
+            } else {
+                preparedStatement = connection.prepareStatement(SELECT_RESERVATION + " WHERE Reservation.arrivalDate < ? AND Reservation.departureDate > ?");
+            }
+            setPeriod(preparedStatement, 1, startDate, endDate);
+            return preparedStatement;
+        }, this::mapReservation);
     }
 
     @Override
     public Reservation findReservationByPeriod(Accommodation accommodation, LocalDate startDate, LocalDate endDate) throws Exception {
-        ArrayList<Reservation> reservations = getAccommodationReservations(accommodation.getId());
-        for (Reservation reservation : reservations) {
-            if (reservation.getArrivalDate().isEqual(startDate) && reservation.getDepartureDate().isEqual(endDate)) {
-                return reservation;
+        // Stop reading as soon as the reservation is found
+        try (Stream<Reservation> reservations = streamAccommodationReservations(accommodation.getId())) {
+            return reservations.filter(reservation -> reservation.getArrivalDate().isEqual(startDate) && reservation.getDepartureDate().isEqual(endDate)).findFirst().orElse(null);
+        }
+    }
+
+    @Override
+    public Reservation findReservationByConfirmationCode(Accommodation accommodation, String confirmationCode) throws Exception {
+        // Single lookup on the unique ReservationConfirmationCode index
+        Reservation reservation = null;
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(SELECT_RESERVATION + " WHERE Reservation.accommodationId = ? AND Reservation.confirmationCode = ?")) {
+            preparedStatement.setInt(1, accommodation.getId());
+            preparedStatement.setString(2, confirmationCode);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    reservation = mapReservation(resultSet);
+                }
             }
         }
-        return null;
+        return reservation;
+    }
+
+    // Build a reservation, with its accommodation and customer, from a row selected with SELECT_RESERVATION.
+    // Reservations whose accommodation has been deleted are mapped to null, which the streams skip.
+    private Reservation mapReservation(ResultSet resultSet) throws SQLException {
+        Accommodation accommodation;
+        // Check if the reservation is for an apartment or a room
+        if (resultSet.getObject("apartmentId") != null) {
+            accommodation = new Apartment(resultSet.getInt("apartmentId"), resultSet.getString("apartmentDescription"), resultSet.getInt("apartmentMaxGuestsAllowed"), resultSet.getInt("numberOfRooms"), resultSet.getInt("numberOfBathrooms"), resultSet.getInt("numberOfBedrooms"), resultSet.getInt("numberOfBeds"));
+        } else if (resultSet.getObject("roomId") != null) {
+            accommodation = new Room(resultSet.getInt("roomId"), resultSet.getString("roomDescription"), resultSet.getInt("roomMaxGuestsAllowed"), resultSet.getBoolean("hasPrivateBathroom"), resultSet.getBoolean("hasKitchen"));
+        } else {
+            // The accommodation does not exist anymore
+            return null;
+        }
+        Customer customer = null;
+        // The join found no customer only if its key is NULL, the name of a customer may be NULL as well
+        if (resultSet.getObject("joinedCustomerId") != null) {
+            customer = new Customer(resultSet.getInt("customerId"), resultSet.getString("customerName"), resultSet.getString("customerAddress"), resultSet.getString("customerPhone"));
+            customer.setIdentityKey(resultSet.getString("customerIdentityKey"));
+        }
+        Reservation reservation = new Reservation(resultSet.getInt("id"), accommodation, resultSet.getDate("arrivalDate").toLocalDate(), resultSet.getDate("departureDate").toLocalDate(), resultSet.getInt("numberOfGuests"), resultSet.getInt("numberOfChildren"), resultSet.getInt("numberOfInfants"), customer, resultSet.getDouble("price"), resultSet.getDate("dateOfReservation").toLocalDate(), resultSet.getDouble("cityTaxAmount"));
+        reservation.setConfirmationCode(resultSet.getString("confirmationCode"));
+        return reservation;
+    }
+
+    private static void bindInsert(PreparedStatement preparedStatement, Reservation reservation) throws SQLException {
+        preparedStatement.setInt(1, reservation.getId());
+        preparedStatement.setInt(2, reservation.getAccommodation().getId());
+        preparedStatement.setDate(3, Date.valueOf(reservation.getArrivalDate()));
+        preparedStatement.setDate(4, Date.valueOf(reservation.getDepartureDate()));
+        preparedStatement.setInt(5, reservation.getNumberOfGuests());
+        preparedStatement.setInt(6, reservation.getNumberOfChildren());
+        preparedStatement.setInt(7, reservation.getNumberOfInfants());
+        preparedStatement.setInt(8, reservation.getCustomer().getId());
+        preparedStatement.setDouble(9, Money.toAmount(reservation.getPriceCents()));
+        preparedStatement.setDate(10, Date.valueOf(reservation.getDateOfReservation()));
+        preparedStatement.setDouble(11, Money.toAmount(reservation.getCityTaxCents()));
+        preparedStatement.setString(12, reservation.getConfirmationCode());
+    }
+
+    private static void bindUpdate(PreparedStatement preparedStatement, Reservation reservation) throws SQLException {
+        preparedStatement.setInt(1, reservation.getAccommodation().getId());
+        preparedStatement.setDate(2, Date.valueOf(reservation.getArrivalDate()));
+        preparedStatement.setDate(3, Date.valueOf(reservation.getDepartureDate()));
+        preparedStatement.setInt(4, reservation.getNumberOfGuests());
+        preparedStatement.setInt(5, reservation.getNumberOfChildren());
+        preparedStatement.setInt(6, reservation.getNumberOfInfants());
+        preparedStatement.setInt(7, reservation.getCustomer().getId());
+        preparedStatement.setDouble(8, Money.toAmount(reservation.getPriceCents()));
+        preparedStatement.setDate(9, Date.valueOf(reservation.getDateOfReservation()));
+        preparedStatement.setDouble(10, Money.toAmount(reservation.getCityTaxCents()));
+        preparedStatement.setString(11, reservation.getConfirmationCode());
+        preparedStatement.setInt(12, reservation.getId());
+    }
+
+    // Anti-join excluding the accommodations of the table that are booked in the period, see setPeriod()
+    private static String notBooked(String table) {
+        return (Database.isIntervalIndexEnabled() ? NOT_BOOKED_INTERVAL : NOT_BOOKED).formatted(table);
+    }
+
+    // Bind the end and then the start of a period for the overlap predicates, as days in the R*Tree storage mode
+    private static void setPeriod(PreparedStatement preparedStatement, int index, LocalDate startDate, LocalDate endDate) throws SQLException {
+        if (Database.isIntervalIndexEnabled()) {
+            preparedStatement.setLong(index, Database.toIndexDay(endDate));
+            preparedStatement.setLong(index + 1, Database.toIndexDay(startDate));
+        } else {
+            preparedStatement.setDate(index, Date.valueOf(endDate));
+            preparedStatement.setDate(index + 1, Date.valueOf(startDate));
+        }
+    }
+
+    private static Apartment mapApartment(ResultSet resultSet) throws SQLException {
+        return new Apartment(resultSet.getInt("id"), resultSet.getString("description"), resultSet.getInt("maxGuestsAllowed"), resultSet.getInt("numberOfRooms"), resultSet.getInt("numberOfBathrooms"), resultSet.getInt("numberOfBedrooms"), resultSet.getInt("numberOfBeds"));
+    }
+
+    private static Room mapRoom(ResultSet resultSet) throws SQLException {
+        return new Room(resultSet.getInt("id"), resultSet.getString("description"), resultSet.getInt("maxGuestsAllowed"), resultSet.getBoolean("hasPrivateBathroom"), resultSet.getBoolean("hasKitchen"));
+    }
+
+    // Read every row of the stream and close it
+    private static ArrayList<Reservation> collect(Stream<Reservation> reservations) {
+        try (reservations) {
+            return reservations.collect(Collectors.toCollection(ArrayList::new));
+        }
     }
 }
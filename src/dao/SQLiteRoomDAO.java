@@ -3,89 +3,135 @@ package dao;
 import domainModel.Room;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.stream.Stream;
 
 public class SQLiteRoomDAO implements RoomDAO{
+    private static final String INSERT = "INSERT INTO Room (id, description, maxGuestsAllowed, hasPrivateBathroom, hasKitchen) VALUES (?, ?, ?, ?, ?)";
+    private static final String UPDATE = "UPDATE Room SET description = ?, maxGuestsAllowed = ?, hasPrivateBathroom = ?, hasKitchen = ? WHERE id = ?";
+
     @Override
     public int getNextId() throws Exception {
-        return IDGenerator.getNextId();
+        return IDGenerator.getNextId("Accommodation");
     }
 
     @Override
     public Room get(Integer id) throws Exception {
-        Connection connection = Database.getConnection();
         Room room = null;
-        PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Room WHERE id = ?");
-        preparedStatement.setInt(1, id);
-        ResultSet resultSet = preparedStatement.executeQuery();
-
-        if (resultSet.next()) {
-            room = new Room(resultSet.getInt("id"), resultSet.getString("description"), resultSet.getInt("maxGuestsAllowed"), resultSet.getBoolean("hasPrivateBathroom"), resultSet.getBoolean("hasKitchen"));
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM Room WHERE id = ?")) {
+            preparedStatement.setInt(1, id);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    room = new Room(resultSet.getInt("id"), resultSet.getString("description"), resultSet.getInt("maxGuestsAllowed"), resultSet.getBoolean("hasPrivateBathroom"), resultSet.getBoolean("hasKitchen"));
+                }
+            }
         }
-
-        resultSet.close();
-        preparedStatement.close();
-        Database.closeConnection(connection);
         return room;
     }
 
     @Override
     public void insert(Room room) throws Exception {
-        Connection connection = Database.getConnection();
         room.setId(getNextId());
-        PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO Room (id, description, maxGuestsAllowed, hasPrivateBathroom, hasKitchen) VALUES (?, ?, ?, ?, ?)");
-        preparedStatement.setInt(1, room.getId());
-        preparedStatement.setString(2, room.getDescription());
-        preparedStatement.setInt(3, room.getMaxGuestsAllowed());
-        preparedStatement.setBoolean(4, room.getHasPrivateBathroom());
-        preparedStatement.setBoolean(5, room.getHasKitchen());
-        preparedStatement.executeUpdate();
-        preparedStatement.close();
-        Database.closeConnection(connection);
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(INSERT)) {
+            bindInsert(preparedStatement, room);
+            preparedStatement.executeUpdate();
+        }
     }
 
     @Override
     public void update(Room room) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("UPDATE Room SET description = ?, maxGuestsAllowed = ?, hasPrivateBathroom = ?, hasKitchen = ? WHERE id = ?");
-        preparedStatement.setString(1, room.getDescription());
-        preparedStatement.setInt(2, room.getMaxGuestsAllowed());
-        preparedStatement.setBoolean(3, room.getHasPrivateBathroom());
-        preparedStatement.setBoolean(4, room.getHasKitchen());
-        preparedStatement.setInt(5, room.getId());
-        preparedStatement.executeUpdate();
-        preparedStatement.close();
-        Database.closeConnection(connection);
+        try (Connection connection = Database.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(UPDATE)) {
+            bindUpdate(preparedStatement, room);
+            preparedStatement.executeUpdate();
+        }
     }
 
     @Override
     public boolean delete(Integer id) throws Exception {
-        Connection connection = Database.getConnection();
-        PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM Room WHERE id = ?");
-        preparedStatement.setInt(1, id);
-        int rowsAffected = preparedStatement.executeUpdate();
-        preparedStatement.close();
-        // Delete all reservations for this room
-        preparedStatement = connection.prepareStatement("DELETE FROM Reservation WHERE accommodationId = ?");
-        preparedStatement.setInt(1, id);
-        preparedStatement.executeUpdate();
-        preparedStatement.close();
-        Database.closeConnection(connection);
+        int rowsAffected;
+        try (Connection connection = Database.getConnection()) {
+            try (PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM Room WHERE id = ?")) {
+                preparedStatement.setInt(1, id);
+                rowsAffected = preparedStatement.executeUpdate();
+            }
+            // Delete all reservations for this room
+            try (PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM Reservation WHERE accommodationId = ?")) {
+                preparedStatement.setInt(1, id);
+                preparedStatement.executeUpdate();
+            }
+        }
+        AvailabilityIndex.getInstance().removeAccommodation(id);
         return rowsAffected > 0;
     }
 
+    @Override
+    public void insertAll(Collection<Room> rooms) throws Exception {
+        if (rooms.isEmpty()) {
+            return;
+        }
+        int id = IDGenerator.getNextIds("Accommodation", rooms.size());
+        for (Room room : rooms) {
+            room.setId(id++);
+        }
+        BatchStatement.execute(INSERT, rooms, SQLiteRoomDAO::bindInsert);
+    }
+
+    @Override
+    public void updateAll(Collection<Room> rooms) throws Exception {
+        BatchStatement.execute(UPDATE, rooms, SQLiteRoomDAO::bindUpdate);
+    }
+
+    @Override
+    public int deleteAll(Collection<Integer> ids) throws Exception {
+        // Delete the rooms and all their reservations together
+        int rowsAffected = Database.inTransaction(() -> {
+            BatchStatement.execute("DELETE FROM Reservation WHERE accommodationId = ?", ids, (preparedStatement, id) -> preparedStatement.setInt(1, id));
+            return BatchStatement.execute("DELETE FROM Room WHERE id = ?", ids, (preparedStatement, id) -> preparedStatement.setInt(1, id));
+        });
+        for (int id : ids) {
+            AvailabilityIndex.getInstance().removeAccommodation(id);
+        }
+        return rowsAffected;
+    }
+
     @Override
     public ArrayList<Room> getAll() throws Exception {
-        Connection connection = Database.getConnection();
         ArrayList<Room> rooms = new ArrayList<>();
-        Statement statement = connection.createStatement();
-        ResultSet resultSet = statement.executeQuery("SELECT * FROM Room");
-        while (resultSet.next()) {
-            Room room = new Room(resultSet.getInt("id"), resultSet.getString("description"), resultSet.getInt("maxGuestsAllowed"), resultSet.getBoolean("hasPrivateBathroom"), resultSet.getBoolean("hasKitchen"));;
-            rooms.add(room);
+        try (Connection connection = Database.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM Room")) {
+            while (resultSet.next()) {
+                rooms.add(mapRoom(resultSet));
+            }
         }
-        resultSet.close();
-        statement.close();
-        Database.closeConnection(connection);
         return rooms;
     }
+
+    @Override
+    public Stream<Room> stream() throws Exception {
+        return ResultSetStream.of(connection -> connection.prepareStatement("SELECT * FROM Room"), SQLiteRoomDAO::mapRoom);
+    }
+
+    private static void bindInsert(PreparedStatement preparedStatement, Room room) throws SQLException {
+        preparedStatement.setInt(1, room.getId());
+        preparedStatement.setString(2, room.getDescription());
+        preparedStatement.setInt(3, room.getMaxGuestsAllowed());
+        preparedStatement.setBoolean(4, room.getHasPrivateBathroom());
+        preparedStatement.setBoolean(5, room.getHasKitchen());
+    }
+
+    private static void bindUpdate(PreparedStatement preparedStatement, Room room) throws SQLException {
+        preparedStatement.setString(1, room.getDescription());
+        preparedStatement.setInt(2, room.getMaxGuestsAllowed());
+        preparedStatement.setBoolean(3, room.getHasPrivateBathroom());
+        preparedStatement.setBoolean(4, room.getHasKitchen());
+        preparedStatement.setInt(5, room.getId());
+    }
+
+    private static Room mapRoom(ResultSet resultSet) throws SQLException {
+        return new Room(resultSet.getInt("id"), resultSet.getString("description"), resultSet.getInt("maxGuestsAllowed"), resultSet.getBoolean("hasPrivateBathroom"), resultSet.getBoolean("hasKitchen"));
+    }
 }
@@ -0,0 +1,96 @@
+package dao;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class SchemaMigrator {
+    // Brings the database schema up to date by applying, in order, the migration scripts that were not applied yet.
+    // Scripts are named V<version>__<description>.sql and the applied versions are recorded in the SchemaVersion table,
+    // so existing data is never dropped and an up-to-date database only costs one query.
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
+    private final File directory;
+
+    SchemaMigrator(String directory) {
+        this.directory = new File(directory);
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final File script;
+
+        private Migration(int version, String description, File script) {
+            this.version = version;
+            this.description = description;
+            this.script = script;
+        }
+    }
+
+    // Returns the number of migrations applied
+    int migrate() throws Exception {
+        int currentVersion = getCurrentVersion();
+        int applied = 0;
+        for (Migration migration : getMigrations()) {
+            if (migration.version <= currentVersion) {
+                continue;
+            }
+            String script = Files.readString(migration.script.toPath());
+            // Each script is applied atomically together with its version row
+            Database.inTransaction(() -> {
+                try (Connection connection = Database.getConnection()) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate(script);
+                    }
+                    try (PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO SchemaVersion (version, description, appliedOn) VALUES (?, ?, ?)")) {
+                        preparedStatement.setInt(1, migration.version);
+                        preparedStatement.setString(2, migration.description);
+                        preparedStatement.setDate(3, Date.valueOf(LocalDate.now()));
+                        preparedStatement.executeUpdate();
+                    }
+                }
+                return null;
+            });
+            applied++;
+        }
+        return applied;
+    }
+
+    int getCurrentVersion() throws SQLException {
+        try (Connection connection = Database.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS SchemaVersion (version INT PRIMARY KEY, description TEXT NOT NULL, appliedOn DATE NOT NULL)");
+            try (ResultSet resultSet = statement.executeQuery("SELECT MAX(version) FROM SchemaVersion")) {
+                // MAX() of an empty table is NULL, which is read as 0
+                return resultSet.getInt(1);
+            }
+        }
+    }
+
+    private ArrayList<Migration> getMigrations() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new FileNotFoundException("ERROR: The migrations directory " + directory.getPath() + " does not exist.");
+        }
+        ArrayList<Migration> migrations = new ArrayList<>();
+        for (File file : files) {
+            Matcher matcher = SCRIPT_NAME.matcher(file.getName());
+            if (matcher.matches()) {
+                migrations.add(new Migration(Integer.parseInt(matcher.group(1)), matcher.group(2).replace('_', ' '), file));
+            }
+        }
+        migrations.sort(Comparator.comparingInt(migration -> migration.version));
+        for (int i = 1; i < migrations.size(); i++) {
+            if (migrations.get(i).version == migrations.get(i - 1).version) {
+                throw new IOException("ERROR: Two migrations have version " + migrations.get(i).version + ".");
+            }
+        }
+        return migrations;
+    }
+}
@@ -0,0 +1,6 @@
+package dao;
+
+public interface TransactionCallback<T> {
+    // Work executed by Database.inTransaction(), every DAO call made here shares the same connection
+    T execute() throws Exception;
+}
@@ -6,6 +6,8 @@ public class Customer {
     private String name;
     private String address;
     private String phone;
+    // Normalized name and phone, set on the customers that are looked up by them, see CustomerBook.getOrCreate()
+    private String identityKey;
 
     public Customer(int id, String name) {
         this.id = id;
@@ -27,6 +29,8 @@ public class Customer {
     }
     public String getAddress() { return address; }
     public String getPhone() { return phone; }
+    public String getIdentityKey() { return identityKey; }
+    public void setIdentityKey(String identityKey) { this.identityKey = identityKey; }
     public void printCustomer() {
         System.out.println("Customer: " + name + " (id: " + id + ") " + "Address: " + address + " Phone: " + phone);
     }
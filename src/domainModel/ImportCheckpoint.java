@@ -0,0 +1,54 @@
+package domainModel;
+
+import java.time.LocalDate;
+
+public class ImportCheckpoint {
+    // How far the import of a source of exports went: the imported part of the taxes file and the reservations
+    // file it was joined with, each identified by its length and SHA-256, and the last imported record.
+    // A source is e.g. the Airbnb exports of an accommodation.
+    private final String source;
+    private final long taxesLength;
+    private final String taxesHash;
+    private final long reservationsLength;
+    private final String reservationsHash;
+    private final String lastConfirmationCode;
+    private final LocalDate lastArrivalDate;
+    // Whether the whole taxes file has been imported
+    private final boolean completed;
+
+    public ImportCheckpoint(String source, long taxesLength, String taxesHash, long reservationsLength, String reservationsHash, String lastConfirmationCode, LocalDate lastArrivalDate, boolean completed) {
+        this.source = source;
+        this.taxesLength = taxesLength;
+        this.taxesHash = taxesHash;
+        this.reservationsLength = reservationsLength;
+        this.reservationsHash = reservationsHash;
+        this.lastConfirmationCode = lastConfirmationCode;
+        this.lastArrivalDate = lastArrivalDate;
+        this.completed = completed;
+    }
+
+    public String getSource() {
+        return source;
+    }
+    public long getTaxesLength() {
+        return taxesLength;
+    }
+    public String getTaxesHash() {
+        return taxesHash;
+    }
+    public long getReservationsLength() {
+        return reservationsLength;
+    }
+    public String getReservationsHash() {
+        return reservationsHash;
+    }
+    public String getLastConfirmationCode() {
+        return lastConfirmationCode;
+    }
+    public LocalDate getLastArrivalDate() {
+        return lastArrivalDate;
+    }
+    public boolean isCompleted() {
+        return completed;
+    }
+}
@@ -6,7 +6,8 @@ public class LocalTax {
     // The id will be assigned by the database
     private int id = 0;
     private String description;
-    private double amount;
+    // Amount in cents, see Money
+    private long amountCents;
 
     // Get type of target (between adults, children and infants)
     private String target;
@@ -20,7 +21,7 @@ public class LocalTax {
 
     public LocalTax(String description, double amount, String target, int daysThreshold, LocalDate startDate, LocalDate endDate) {
         this.description = description;
-        this.amount = amount;
+        this.amountCents = Money.toCents(amount);
         this.target = target;
         this.daysThreshold = daysThreshold;
         this.startDate = startDate;
@@ -40,7 +41,11 @@ public class LocalTax {
     }
 
     public double getAmount() {
-        return amount;
+        return Money.toAmount(amountCents);
+    }
+
+    public long getAmountCents() {
+        return amountCents;
     }
 
     public String getTarget() {
@@ -60,7 +65,7 @@ public class LocalTax {
     }
 
     public void printLocalCityTax() {
-        System.out.println("Amount: " + amount);
+        System.out.println("Amount: " + getAmount());
         System.out.println("Target: " + target);
         System.out.println("Days threshold: " + daysThreshold);
     }
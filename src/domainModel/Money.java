@@ -0,0 +1,25 @@
+package domainModel;
+
+public final class Money {
+    // Amounts of money are held as a whole number of cents in a long: sums are exact and need no object, which
+    // matters when millions of nights are added up. The amounts are only turned into doubles at the edges, for
+    // the accessors kept for the callers, the CSV files and the DECIMAL columns of the database.
+
+    private Money() {
+        // Exists only to defeat instantiation.
+    }
+
+    // The amount rounded to the cent
+    public static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    public static double toAmount(long cents) {
+        return cents / 100.0;
+    }
+
+    // The share part / whole of the amount, rounded to the nearest cent, halves up
+    public static long share(long cents, long part, long whole) {
+        return Math.floorDiv(2 * cents * part + whole, 2 * whole);
+    }
+}
@@ -0,0 +1,76 @@
+package domainModel;
+
+public class MonthlyRollup {
+    // The totals of one guest target in the city tax declaration of an accommodation for a month. The rollups
+    // are added up: the contribution of a reservation is itself a rollup, with negative values when the
+    // reservation is removed.
+    private final int accommodationId;
+    private final int year;
+    private final int month;
+    private final String target;
+    private final int nights;
+    private final int guests;
+    // Amounts in cents, see Money
+    private final long declaredCityTaxCents;
+    private final long revenueCents;
+    private final long evaluatedCityTaxCents;
+
+    public MonthlyRollup(int accommodationId, int year, int month, String target, int nights, int guests, long declaredCityTaxCents, long revenueCents, long evaluatedCityTaxCents) {
+        this.accommodationId = accommodationId;
+        this.year = year;
+        this.month = month;
+        this.target = target;
+        this.nights = nights;
+        this.guests = guests;
+        this.declaredCityTaxCents = declaredCityTaxCents;
+        this.revenueCents = revenueCents;
+        this.evaluatedCityTaxCents = evaluatedCityTaxCents;
+    }
+
+    public int getAccommodationId() {
+        return accommodationId;
+    }
+    public int getYear() {
+        return year;
+    }
+    public int getMonth() {
+        return month;
+    }
+    public String getTarget() {
+        return target;
+    }
+    public int getNights() {
+        return nights;
+    }
+    public int getGuests() {
+        return guests;
+    }
+    public double getDeclaredCityTax() {
+        return Money.toAmount(declaredCityTaxCents);
+    }
+    public long getDeclaredCityTaxCents() {
+        return declaredCityTaxCents;
+    }
+    public double getRevenue() {
+        return Money.toAmount(revenueCents);
+    }
+    public long getRevenueCents() {
+        return revenueCents;
+    }
+    public double getEvaluatedCityTax() {
+        return Money.toAmount(evaluatedCityTaxCents);
+    }
+    public long getEvaluatedCityTaxCents() {
+        return evaluatedCityTaxCents;
+    }
+
+    // The same rollup with the opposite values, to take a reservation out of the totals
+    public MonthlyRollup negate() {
+        return new MonthlyRollup(accommodationId, year, month, target, -nights, -guests, -declaredCityTaxCents, -revenueCents, -evaluatedCityTaxCents);
+    }
+
+    // The sum of two rollups of the same accommodation, month and target
+    public MonthlyRollup plus(MonthlyRollup rollup) {
+        return new MonthlyRollup(accommodationId, year, month, target, nights + rollup.nights, guests + rollup.guests, declaredCityTaxCents + rollup.declaredCityTaxCents, revenueCents + rollup.revenueCents, evaluatedCityTaxCents + rollup.evaluatedCityTaxCents);
+    }
+}
@@ -14,9 +14,12 @@ public class Reservation {
     private int numberOfChildren;
     private int numberOfInfants;
     private Customer customer;
-    private double price;
+    // Amounts in cents, see Money
+    private long priceCents;
     private LocalDate dateOfReservation;
-    private double cityTaxAmount;
+    private long cityTaxCents;
+    // Code of the reservation on Airbnb, null if it was not imported
+    private String confirmationCode;
 
 
     public Reservation(int id, Accommodation accommodation, LocalDate arrivalDate, LocalDate departureDate, int numberOfGuests, int numberOfChildren, int numberOfInfants, Customer customer, double price, LocalDate dateOfReservation, double cityTaxAmount) {
@@ -28,9 +31,18 @@ public class Reservation {
         this.numberOfChildren = numberOfChildren;
         this.numberOfInfants = numberOfInfants;
         this.customer = customer;
-        this.price = price;
+        this.priceCents = Money.toCents(price);
         this.dateOfReservation = dateOfReservation;
-        this.cityTaxAmount = cityTaxAmount;
+        this.cityTaxCents = Money.toCents(cityTaxAmount);
+    }
+
+    // A copy of the reservation, to keep its previous values while it is changed
+    public Reservation copy() {
+        Reservation copy = new Reservation(id, accommodation, arrivalDate, departureDate, numberOfGuests, numberOfChildren, numberOfInfants, customer, 0, dateOfReservation, 0);
+        copy.setPriceCents(priceCents);
+        copy.setCityTaxCents(cityTaxCents);
+        copy.setConfirmationCode(confirmationCode);
+        return copy;
     }
 
     public int getId() {
@@ -43,25 +55,35 @@ public class Reservation {
     public LocalDate getArrivalDate() {
         return arrivalDate;
     }
+    public void setArrivalDate(LocalDate arrivalDate) { this.arrivalDate = arrivalDate; }
     public LocalDate getDepartureDate() {
         return departureDate;
     }
+    public void setDepartureDate(LocalDate departureDate) { this.departureDate = departureDate; }
     public int getNumberOfGuests() {
         return numberOfGuests;
     }
+    public void setNumberOfGuests(int numberOfGuests) { this.numberOfGuests = numberOfGuests; }
     public int getNumberOfChildren() {
         return numberOfChildren;
     }
+    public void setNumberOfChildren(int numberOfChildren) { this.numberOfChildren = numberOfChildren; }
     public int getNumberOfInfants() {
         return numberOfInfants;
     }
+    public void setNumberOfInfants(int numberOfInfants) { this.numberOfInfants = numberOfInfants; }
     public Customer getCustomer() {
         return customer;
     }
+    public void setCustomer(Customer customer) { this.customer = customer; }
     public double getPrice() {
-        return price;
+        return Money.toAmount(priceCents);
     }
-    public void setPrice(double price) { this.price = price; }
+    public void setPrice(double price) { this.priceCents = Money.toCents(price); }
+    public long getPriceCents() {
+        return priceCents;
+    }
+    public void setPriceCents(long priceCents) { this.priceCents = priceCents; }
     public LocalDate getDateOfReservation() {
         return dateOfReservation;
     }
@@ -69,10 +91,22 @@ public class Reservation {
         this.dateOfReservation = dateOfReservation;
     }
     public double getCityTaxAmount() {
-        return cityTaxAmount;
+        return Money.toAmount(cityTaxCents);
     }
     public void setCityTaxAmount(double cityTaxAmount) {
-        this.cityTaxAmount = cityTaxAmount;
+        this.cityTaxCents = Money.toCents(cityTaxAmount);
+    }
+    public long getCityTaxCents() {
+        return cityTaxCents;
+    }
+    public void setCityTaxCents(long cityTaxCents) {
+        this.cityTaxCents = cityTaxCents;
+    }
+    public String getConfirmationCode() {
+        return confirmationCode;
+    }
+    public void setConfirmationCode(String confirmationCode) {
+        this.confirmationCode = confirmationCode;
     }
 
     public void printReservation() {
@@ -3,6 +3,7 @@ package businessLogic;
 import dao.*;
 import domainModel.Accommodation;
 import domainModel.Apartment;
+import domainModel.LocalTax;
 import domainModel.Reservation;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,8 +12,12 @@ import org.junit.jupiter.api.Test;
 // Apache Commons CSV
 import org.apache.commons.csv.*;
 
+import java.io.File;
+import java.io.FileReader;
 import java.sql.Connection;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -32,6 +37,7 @@ class AccountingHandlerTest {
         connection.createStatement().executeUpdate("DELETE FROM LocalTax");
         connection.createStatement().executeUpdate("DELETE FROM Reservation");
         connection.createStatement().executeUpdate("DELETE FROM Apartment");
+        connection.createStatement().executeUpdate("DELETE FROM MonthlyRollup");
         connection.close();
     }
 
@@ -120,9 +126,7 @@ class AccountingHandlerTest {
         }
 
         // Open the file and check that the declaration is correct using Apache Commons CSV
-        try {
-            // Open CSV file and parse it
-            CSVParser parser = CSVParser.parse(new java.io.FileReader("cityTax_ID_"+apartment.getId()+"_for_4_2023.csv"), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+        try (CSVParser parser = CSVParser.parse(new FileReader("cityTax_ID_"+apartment.getId()+"_for_4_2023.csv"), CSVFormat.DEFAULT.withFirstRecordAsHeader())) {
             for (CSVRecord csvRecord : parser) {
                 assertEquals("440.0", csvRecord.get("TOTAL CITY TAX AMOUNT"));
                 assertEquals("24", csvRecord.get("TOTAL GUESTS"));
@@ -134,4 +138,257 @@ class AccountingHandlerTest {
         }
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void When_LocalTaxIsDeleted_Expect_EvaluationUsesTheRemainingTaxes() throws Exception {
+        CustomerBook customerBook = CustomerBook.getInstance(new SQLiteCustomerDAO());
+        AccommodationHandler accommodationHandler = AccommodationHandler.getInstance(new SQLiteApartmentDAO(), new SQLiteRoomDAO());
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), customerBook);
+        AccountingHandler accountingHandler = AccountingHandler.getInstance(reservationHandler);
+        LocalTaxDAO localTaxDAO = new SQLiteLocalTaxDAO();
+
+        Accommodation apartment = accommodationHandler.createAccommodation("apartment", "Test", 2);
+        assertNotNull(accommodationHandler.addApartmentDetails(apartment, 4, 2, 1, 1));
+        accountingHandler.addLocalTax("Year", 1, "adults", 7, LocalDate.of(2023, 1, 1), LocalDate.of(2023, 12, 31));
+        accountingHandler.addLocalTax("Summer", 3, "adults", 7, LocalDate.of(2023, 6, 1), LocalDate.of(2023, 8, 31));
+
+        // Two adults for 4 nights in July
+        Reservation reservation = reservationHandler.addReservation(apartment, LocalDate.of(2023, 7, 1), LocalDate.of(2023, 7, 5), 2, 0, 0, customerBook.getCustomer(1), 100, 0);
+        accountingHandler.evaluateLocalTaxes(reservation);
+        assertEquals(32.0, reservation.getCityTaxAmount());
+
+        // The timelines are swapped when a tax is deleted
+        for (LocalTax localTax : localTaxDAO.getAll()) {
+            if (localTax.getDescription().equals("Summer")) {
+                assertTrue(accountingHandler.deleteLocalTax(localTax.getId()));
+            }
+        }
+        accountingHandler.evaluateLocalTaxes(reservation);
+        assertEquals(8.0, reservation.getCityTaxAmount());
+    }
+
+    @Test
+    void When_RateChangesDuringStay_Expect_NightsUpToThresholdAreTaxed() throws Exception {
+        CustomerBook customerBook = CustomerBook.getInstance(new SQLiteCustomerDAO());
+        AccommodationHandler accommodationHandler = AccommodationHandler.getInstance(new SQLiteApartmentDAO(), new SQLiteRoomDAO());
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), customerBook);
+        AccountingHandler accountingHandler = AccountingHandler.getInstance(reservationHandler);
+
+        Accommodation apartment = accommodationHandler.createAccommodation("apartment", "Test", 2);
+        assertNotNull(accommodationHandler.addApartmentDetails(apartment, 4, 2, 1, 1));
+
+        accountingHandler.addLocalTax("Low", 2, "adults", 7, LocalDate.of(2023, 1, 1), LocalDate.of(2023, 1, 5));
+        accountingHandler.addLocalTax("High", 3.5, "adults", 7, LocalDate.of(2023, 1, 6), LocalDate.of(2023, 12, 31));
+        accountingHandler.addLocalTax("Children", 1.25, "children", 3, LocalDate.of(2023, 1, 1), LocalDate.of(2023, 12, 31));
+
+        // One adult and two children for 12 nights: the adult pays 3 nights at 2 and 4 at 3.5 before the
+        // threshold, the children 3 nights each, the infant nothing
+        Reservation reservation = reservationHandler.addReservation(apartment, LocalDate.of(2023, 1, 3), LocalDate.of(2023, 1, 15), 4, 2, 1, customerBook.getCustomer(1), 2, 1);
+        accountingHandler.evaluateLocalTaxes(reservation);
+        assertEquals(27.5, reservation.getCityTaxAmount());
+    }
+
+    @Test
+    void When_AllReservationsAreEvaluated_Expect_OnlyChangedAmountsAreCounted() throws Exception {
+        CustomerBook customerBook = CustomerBook.getInstance(new SQLiteCustomerDAO());
+        AccommodationHandler accommodationHandler = AccommodationHandler.getInstance(new SQLiteApartmentDAO(), new SQLiteRoomDAO());
+        ReservationDAO reservationDAO = new SQLiteReservationDAO();
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(reservationDAO, customerBook);
+        AccountingHandler accountingHandler = AccountingHandler.getInstance(reservationHandler);
+
+        Accommodation apartment = accommodationHandler.createAccommodation("apartment", "Test", 2);
+        assertNotNull(accommodationHandler.addApartmentDetails(apartment, 4, 2, 1, 1));
+        accountingHandler.addLocalTax("Adults", 2, "adults", 7, LocalDate.of(2023, 1, 1), LocalDate.of(2023, 12, 31));
+
+        // Two adults each
+        Reservation january = reservationHandler.addReservation(apartment, LocalDate.of(2023, 1, 3), LocalDate.of(2023, 1, 8), 2, 0, 0, customerBook.getCustomer(1), 100, 0);
+        Reservation march = reservationHandler.addReservation(apartment, LocalDate.of(2023, 3, 1), LocalDate.of(2023, 3, 4), 2, 0, 0, customerBook.getCustomer(1), 100, 0);
+        Reservation nextYear = reservationHandler.addReservation(apartment, LocalDate.of(2024, 1, 3), LocalDate.of(2024, 1, 8), 2, 0, 0, customerBook.getCustomer(1), 100, 0);
+
+        assertEquals(2, accountingHandler.evaluateAll(LocalDate.of(2023, 1, 1), LocalDate.of(2024, 1, 1)));
+        assertEquals(20.0, reservationDAO.get(january.getId()).getCityTaxAmount());
+        assertEquals(12.0, reservationDAO.get(march.getId()).getCityTaxAmount());
+        assertEquals(0.0, reservationDAO.get(nextYear.getId()).getCityTaxAmount());
+
+        // Nothing changes when the rates are the same
+        assertEquals(0, accountingHandler.evaluateAll(LocalDate.of(2023, 1, 1), LocalDate.of(2024, 1, 1)));
+
+        // A new rate from March only changes the March stay
+        accountingHandler.addLocalTax("March", 1, "adults", 7, LocalDate.of(2023, 3, 1), LocalDate.of(2023, 3, 31));
+        assertEquals(1, accountingHandler.evaluateAll(LocalDate.of(2023, 1, 1), LocalDate.of(2024, 1, 1)));
+        assertEquals(18.0, reservationDAO.get(march.getId()).getCityTaxAmount());
+    }
+
+    @Test
+    void When_SeveralMonthsAreDeclared_Expect_SameTotalsAsMonthlyDeclarations() throws Exception {
+        CustomerBook customerBook = CustomerBook.getInstance(new SQLiteCustomerDAO());
+        AccommodationHandler accommodationHandler = AccommodationHandler.getInstance(new SQLiteApartmentDAO(), new SQLiteRoomDAO());
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), customerBook);
+        AccountingHandler accountingHandler = AccountingHandler.getInstance(reservationHandler);
+
+        Accommodation accommodation = accommodationHandler.createAccommodation("apartment", "Test", 2);
+        Apartment apartment = accommodationHandler.addApartmentDetails(accommodation, 4, 2, 1, 1);
+        accountingHandler.addLocalTax("Test1", 3, "children", 7, LocalDate.of(2020, 1, 1), LocalDate.of(2031, 1, 1));
+        accountingHandler.addLocalTax("Test2", 3, "adults", 7, LocalDate.of(2020, 1, 1), LocalDate.of(2031, 1, 1));
+        accountingHandler.addLocalTax("Test3", 2.5, "children", 7, LocalDate.of(2020, 1, 1), LocalDate.of(2031, 1, 1));
+        accountingHandler.addLocalTax("Test4", 2.5, "adults", 7, LocalDate.of(2020, 1, 1), LocalDate.of(2031, 1, 1));
+        reservationHandler.importFromAirbnb(apartment, "test/businessLogic/airbnb_tax_test.csv", "test/businessLogic/reservations_test.csv");
+        // A stay across the end of May and the start of June
+        reservationHandler.addReservation(apartment, LocalDate.of(2023, 5, 29), LocalDate.of(2023, 6, 3), 2, 0, 0, customerBook.getCustomer(1), 100, 27.5);
+
+        assertTrue(accountingHandler.evaluateCityTaxDeclaration(apartment, YearMonth.of(2023, 3), YearMonth.of(2023, 6)));
+        int rows = 0;
+        for (CSVRecord declared : readDeclaration("cityTax_ID_" + apartment.getId() + "_from_3_2023_to_6_2023.csv")) {
+            int month = Integer.parseInt(declared.get("MONTH"));
+            assertEquals(2023, Integer.parseInt(declared.get("YEAR")));
+            assertTrue(accountingHandler.evaluateCityTaxMonthlyDeclaration(apartment, month, 2023));
+            CSVRecord expected = readDeclaration("cityTax_ID_" + apartment.getId() + "_for_" + month + "_2023.csv").get(0);
+            for (String column : new String[]{"TOTAL CITY TAX AMOUNT", "TOTAL GUESTS", "TOTAL NIGHTS", "EVALUATED CITY TAX"}) {
+                assertEquals(expected.get(column), declared.get(column), column + " of month " + month);
+            }
+            if (month == 4) {
+                assertEquals("440.0", declared.get("TOTAL CITY TAX AMOUNT"));
+                assertEquals("80", declared.get("TOTAL NIGHTS"));
+            }
+            if (month == 5 || month == 6) {
+                assertNotEquals("0", declared.get("TOTAL NIGHTS"));
+            }
+            rows++;
+        }
+        assertEquals(4, rows);
+    }
+
+    @Test
+    void When_PortfolioIsDeclared_Expect_TotalsOfAllAccommodations() throws Exception {
+        CustomerBook customerBook = CustomerBook.getInstance(new SQLiteCustomerDAO());
+        AccommodationHandler accommodationHandler = AccommodationHandler.getInstance(new SQLiteApartmentDAO(), new SQLiteRoomDAO());
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), customerBook);
+        AccountingHandler accountingHandler = AccountingHandler.getInstance(reservationHandler);
+
+        Apartment imported = accommodationHandler.addApartmentDetails(accommodationHandler.createAccommodation("apartment", "Imported", 2), 4, 2, 1, 1);
+        Apartment booked = accommodationHandler.addApartmentDetails(accommodationHandler.createAccommodation("apartment", "Booked", 2), 4, 2, 1, 1);
+        Apartment empty = accommodationHandler.addApartmentDetails(accommodationHandler.createAccommodation("apartment", "Empty", 2), 4, 2, 1, 1);
+        accountingHandler.addLocalTax("Test1", 3, "children", 7, LocalDate.of(2020, 1, 1), LocalDate.of(2031, 1, 1));
+        accountingHandler.addLocalTax("Test2", 3, "adults", 7, LocalDate.of(2020, 1, 1), LocalDate.of(2031, 1, 1));
+        accountingHandler.addLocalTax("Test3", 2.5, "children", 7, LocalDate.of(2020, 1, 1), LocalDate.of(2031, 1, 1));
+        accountingHandler.addLocalTax("Test4", 2.5, "adults", 7, LocalDate.of(2020, 1, 1), LocalDate.of(2031, 1, 1));
+        reservationHandler.importFromAirbnb(imported, "test/businessLogic/airbnb_tax_test.csv", "test/businessLogic/reservations_test.csv");
+        // Two adults for 3 nights in April
+        reservationHandler.addReservation(booked, LocalDate.of(2023, 4, 10), LocalDate.of(2023, 4, 13), 2, 0, 0, customerBook.getCustomer(1), 100, 33);
+
+        List<Accommodation> accommodations = List.of(imported, booked, empty);
+        assertTrue(accountingHandler.evaluateCityTaxPortfolioDeclaration(accommodations, YearMonth.of(2023, 4), YearMonth.of(2023, 5), true));
+
+        int rows = 0;
+        for (CSVRecord record : readDeclaration("cityTax_portfolio_from_4_2023_to_5_2023.csv")) {
+            if (!record.get("MONTH").equals("4")) {
+                rows++;
+                continue;
+            }
+            String id = record.get("ACCOMMODATION ID");
+            if (id.equals(String.valueOf(imported.getId()))) {
+                assertEquals("440.0", record.get("TOTAL CITY TAX AMOUNT"));
+                assertEquals("80", record.get("TOTAL NIGHTS"));
+            } else if (id.equals(String.valueOf(booked.getId()))) {
+                assertEquals("6", record.get("TOTAL NIGHTS"));
+                assertEquals("33.0", record.get("EVALUATED CITY TAX"));
+            } else if (id.equals(String.valueOf(empty.getId()))) {
+                assertEquals("0", record.get("TOTAL GUESTS"));
+            } else {
+                assertEquals("TOTAL", id);
+                assertEquals("473.0", record.get("TOTAL CITY TAX AMOUNT"));
+                assertEquals("26", record.get("TOTAL GUESTS"));
+                assertEquals("86", record.get("TOTAL NIGHTS"));
+                assertEquals("473.0", record.get("EVALUATED CITY TAX"));
+            }
+            rows++;
+        }
+        // Two months for each accommodation and for the total
+        assertEquals(8, rows);
+        // The file of each accommodation was written too
+        assertTrue(new File("cityTax_ID_" + booked.getId() + "_from_4_2023_to_5_2023.csv").exists());
+    }
+
+    // Read all the records of a declaration file
+    private static List<CSVRecord> readDeclaration(String fileName) throws Exception {
+        try (CSVParser parser = CSVParser.parse(new FileReader(fileName), CSVFormat.DEFAULT.withFirstRecordAsHeader())) {
+            return parser.getRecords();
+        }
+    }
+
+    // Declare the months from the reservations and from the rollups, the totals must be the same
+    private void assertRollupsMatchReservations(AccountingHandler accountingHandler, Apartment apartment, YearMonth firstMonth, YearMonth lastMonth) throws Exception {
+        String fileName = "cityTax_ID_" + apartment.getId() + "_from_" + firstMonth.getMonthValue() + "_" + firstMonth.getYear() + "_to_" + lastMonth.getMonthValue() + "_" + lastMonth.getYear() + ".csv";
+        assertTrue(accountingHandler.evaluateCityTaxDeclaration(apartment, firstMonth, lastMonth));
+        List<CSVRecord> expected = readDeclaration(fileName);
+        assertTrue(accountingHandler.evaluateCityTaxDeclarationFromRollups(apartment, firstMonth, lastMonth));
+        List<CSVRecord> actual = readDeclaration(fileName);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            String month = expected.get(i).get("MONTH");
+            assertEquals(month, actual.get(i).get("MONTH"));
+            assertEquals(expected.get(i).get("TOTAL GUESTS"), actual.get(i).get("TOTAL GUESTS"), "guests of month " + month);
+            assertEquals(expected.get(i).get("TOTAL NIGHTS"), actual.get(i).get("TOTAL NIGHTS"), "nights of month " + month);
+            assertEquals(Double.parseDouble(expected.get(i).get("TOTAL CITY TAX AMOUNT")), Double.parseDouble(actual.get(i).get("TOTAL CITY TAX AMOUNT")), "city tax of month " + month);
+            assertEquals(Double.parseDouble(expected.get(i).get("EVALUATED CITY TAX")), Double.parseDouble(actual.get(i).get("EVALUATED CITY TAX")), "evaluated city tax of month " + month);
+        }
+    }
+
+    @Test
+    void When_ReservationsChange_Expect_RollupsFollowThem() throws Exception {
+        CustomerBook customerBook = CustomerBook.getInstance(new SQLiteCustomerDAO());
+        AccommodationHandler accommodationHandler = AccommodationHandler.getInstance(new SQLiteApartmentDAO(), new SQLiteRoomDAO());
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), customerBook);
+        AccountingHandler accountingHandler = AccountingHandler.getInstance(reservationHandler);
+
+        Apartment apartment = accommodationHandler.addApartmentDetails(accommodationHandler.createAccommodation("apartment", "Test", 2), 4, 2, 1, 1);
+        accountingHandler.addLocalTax("Test1", 3, "children", 7, LocalDate.of(2020, 1, 1), LocalDate.of(2031, 1, 1));
+        accountingHandler.addLocalTax("Test2", 3, "adults", 7, LocalDate.of(2020, 1, 1), LocalDate.of(2031, 1, 1));
+        accountingHandler.addLocalTax("Test3", 2.5, "children", 7, LocalDate.of(2020, 1, 1), LocalDate.of(2031, 1, 1));
+        accountingHandler.addLocalTax("Test4", 2.5, "adults", 7, LocalDate.of(2020, 1, 1), LocalDate.of(2031, 1, 1));
+        YearMonth march = YearMonth.of(2023, 3);
+        YearMonth june = YearMonth.of(2023, 6);
+
+        reservationHandler.importFromAirbnb(apartment, "test/businessLogic/airbnb_tax_test.csv", "test/businessLogic/reservations_test.csv");
+        Reservation acrossMonths = reservationHandler.addReservation(apartment, LocalDate.of(2023, 5, 29), LocalDate.of(2023, 6, 3), 3, 1, 0, customerBook.getCustomer(1), 500, 0);
+        accountingHandler.evaluateLocalTaxes(acrossMonths);
+        Reservation deleted = reservationHandler.addReservation(apartment, LocalDate.of(2023, 6, 10), LocalDate.of(2023, 6, 12), 2, 0, 0, customerBook.getCustomer(1), 200, 22);
+        assertRollupsMatchReservations(accountingHandler, apartment, march, june);
+
+        assertTrue(reservationHandler.deleteReservation(deleted));
+        assertRollupsMatchReservations(accountingHandler, apartment, march, june);
+
+        // The rebuild gives the same totals
+        assertTrue(accountingHandler.rebuildMonthlyRollups() > 0);
+        assertRollupsMatchReservations(accountingHandler, apartment, march, june);
+    }
+
+    @Test
+    void When_LocalTaxesChange_Expect_RollupsFollowThem() throws Exception {
+        CustomerBook customerBook = CustomerBook.getInstance(new SQLiteCustomerDAO());
+        AccommodationHandler accommodationHandler = AccommodationHandler.getInstance(new SQLiteApartmentDAO(), new SQLiteRoomDAO());
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), customerBook);
+        AccountingHandler accountingHandler = AccountingHandler.getInstance(reservationHandler);
+        LocalTaxDAO localTaxDAO = new SQLiteLocalTaxDAO();
+
+        Apartment apartment = accommodationHandler.addApartmentDetails(accommodationHandler.createAccommodation("apartment", "Test", 2), 4, 2, 1, 1);
+        reservationHandler.addReservation(apartment, LocalDate.of(2023, 3, 28), LocalDate.of(2023, 4, 4), 3, 1, 0, customerBook.getCustomer(1), 300, 20);
+        reservationHandler.addReservation(apartment, LocalDate.of(2023, 5, 29), LocalDate.of(2023, 6, 3), 2, 0, 0, customerBook.getCustomer(1), 100, 10);
+        YearMonth march = YearMonth.of(2023, 3);
+        YearMonth june = YearMonth.of(2023, 6);
+
+        // The taxes arrive after the reservations, each one only moves the rollups of its own period
+        accountingHandler.addLocalTax("Year", 2, "adults", 7, LocalDate.of(2023, 1, 1), LocalDate.of(2023, 12, 31));
+        accountingHandler.addLocalTax("April", 1, "children", 3, LocalDate.of(2023, 4, 1), LocalDate.of(2023, 4, 30));
+        accountingHandler.addLocalTax("June", 3, "adults", 2, LocalDate.of(2023, 6, 1), LocalDate.of(2023, 6, 30));
+        assertRollupsMatchReservations(accountingHandler, apartment, march, june);
+
+        for (LocalTax localTax : localTaxDAO.getAll()) {
+            if (!localTax.getDescription().equals("Year")) {
+                assertTrue(accountingHandler.deleteLocalTax(localTax.getId()));
+            }
+        }
+        assertRollupsMatchReservations(accountingHandler, apartment, march, june);
+        assertFalse(accountingHandler.deleteLocalTax(-1));
+    }
+}
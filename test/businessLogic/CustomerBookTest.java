@@ -0,0 +1,39 @@
+package businessLogic;
+
+import dao.Database;
+import dao.SQLiteCustomerDAO;
+import domainModel.Customer;
+import org.junit.jupiter.api.BeforeAll;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CustomerBookTest {
+
+    @BeforeAll
+    static void initDb() throws Exception {
+        // Set up database
+        Database.setDatabase("test.db");
+        Database.initDatabase();
+    }
+
+    @org.junit.jupiter.api.Test
+    void When_SameGuestIsWrittenDifferently_Expect_OneCustomer() throws Exception {
+        // Test that names and phones are compared once normalized
+        CustomerBook customerBook = CustomerBook.getInstance(new SQLiteCustomerDAO());
+        Customer customer = customerBook.getOrCreate("Mario  Rossi", "", "+39 333-123 4567");
+        assertNotNull(customer);
+        assertEquals(customer.getId(), customerBook.getOrCreate(" mario rossi", "Via Roma 1", "+393331234567").getId());
+        assertNotEquals(customer.getId(), customerBook.getOrCreate("Mario Rossi", "", "+39 333 123 4568").getId());
+        assertEquals("Mario  Rossi", customerBook.getCustomer(customer.getId()).getName());
+    }
+
+    @org.junit.jupiter.api.Test
+    void When_IndexIsDropped_Expect_CustomerIsFoundAgain() throws Exception {
+        // Test that the index is loaded again from the database instead of creating a duplicate
+        CustomerBook customerBook = CustomerBook.getInstance(new SQLiteCustomerDAO());
+        Customer customer = customerBook.getOrCreate("Walter White", "", "1");
+        Database.invalidateCaches();
+        assertEquals(customer.getId(), customerBook.findCustomer("WALTER WHITE", "1").getId());
+        assertEquals(customer.getId(), customerBook.getOrCreate("Walter White", "", "1").getId());
+    }
+}
@@ -0,0 +1,89 @@
+package businessLogic;
+
+import dao.Database;
+import dao.LocalTaxDAO;
+import dao.SQLiteLocalTaxDAO;
+import domainModel.LocalTax;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalTaxTimelineTest {
+
+    @BeforeAll
+    static void initDb() throws Exception {
+        // Set up database
+        Database.setDatabase("test.db");
+        Database.initDatabase();
+    }
+
+    @BeforeEach
+    void init() throws Exception {
+        try (Connection connection = Database.getConnection(); Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM LocalTax");
+        }
+    }
+
+    @Test
+    void When_LocalTaxesAreRead_Expect_SameTaxesAsDatabase() throws Exception {
+        // Test that the timeline finds the same taxes as the LocalTaxTargetPeriod index
+        LocalTaxDAO localTaxDAO = new SQLiteLocalTaxDAO();
+        localTaxDAO.insert(new LocalTax("Winter", 2, "adults", 7, LocalDate.of(2023, 1, 1), LocalDate.of(2023, 3, 31)));
+        localTaxDAO.insert(new LocalTax("Year", 1, "adults", 5, LocalDate.of(2023, 1, 1), LocalDate.of(2023, 12, 31)));
+        localTaxDAO.insert(new LocalTax("Summer", 3, "adults", 7, LocalDate.of(2023, 6, 1), LocalDate.of(2023, 8, 31)));
+        localTaxDAO.insert(new LocalTax("Day", 4, "adults", 1, LocalDate.of(2023, 4, 1), LocalDate.of(2023, 4, 1)));
+        localTaxDAO.insert(new LocalTax("Children", 1, "children", 7, LocalDate.of(2023, 1, 1), LocalDate.of(2023, 12, 31)));
+        Map<String, LocalTaxTimeline> timelines = LocalTaxTimeline.build(localTaxDAO.getAll());
+
+        // Stays before, across and after the boundaries of the taxes
+        LocalDate[][] periods = {
+                {LocalDate.of(2022, 12, 20), LocalDate.of(2023, 1, 1)},
+                {LocalDate.of(2023, 3, 31), LocalDate.of(2023, 4, 1)},
+                {LocalDate.of(2023, 4, 2), LocalDate.of(2023, 5, 31)},
+                {LocalDate.of(2023, 5, 25), LocalDate.of(2023, 6, 10)},
+                {LocalDate.of(2023, 2, 1), LocalDate.of(2023, 9, 1)},
+                {LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 5)}
+        };
+        for (String target : new String[]{"adults", "children"}) {
+            for (LocalDate[] period : periods) {
+                ArrayList<Integer> expected = new ArrayList<>();
+                for (LocalTax localTax : localTaxDAO.getLocalTaxesByTarget(target, period[0], period[1])) {
+                    expected.add(localTax.getId());
+                }
+                ArrayList<Integer> actual = new ArrayList<>();
+                for (LocalTax localTax : timelines.get(target).getLocalTaxes(period[0], period[1])) {
+                    actual.add(localTax.getId());
+                }
+                assertEquals(expected, actual, target + " from " + period[0] + " to " + period[1]);
+            }
+        }
+        // A target without taxes has no timeline
+        assertNull(timelines.get("infants"));
+    }
+
+    @Test
+    void When_StayCrossesRateChanges_Expect_NightsUpToThresholdAreSummed() {
+        // Test the prefix sums: 2 a night up to the 5th, then 3.5, both for 7 nights, and 1 for 3 nights
+        LocalTaxTimeline timeline = LocalTaxTimeline.build(List.of(
+                new LocalTax("Low", 2, "adults", 7, LocalDate.of(2023, 1, 1), LocalDate.of(2023, 1, 5)),
+                new LocalTax("High", 3.5, "adults", 7, LocalDate.of(2023, 1, 6), LocalDate.of(2023, 12, 31)),
+                new LocalTax("Short", 1, "adults", 3, LocalDate.of(2023, 1, 1), LocalDate.of(2023, 12, 31)))).get("adults");
+        long arrivalDay = LocalDate.of(2023, 1, 3).toEpochDay();
+        long departureDay = LocalDate.of(2023, 1, 15).toEpochDay();
+        // 3 nights at 2, 4 at 3.5 and 3 at 1
+        assertEquals(3 * 200 + 4 * 350 + 3 * 100, timeline.getCents(arrivalDay, arrivalDay, departureDay));
+        // From the 6th only the nights at 3.5 are left before the threshold
+        assertEquals(4 * 350, timeline.getCents(arrivalDay, LocalDate.of(2023, 1, 6).toEpochDay(), departureDay));
+        // Nothing is due before the first tax
+        assertEquals(0, timeline.getCents(LocalDate.of(2022, 12, 1).toEpochDay(), LocalDate.of(2022, 12, 1).toEpochDay(), LocalDate.of(2022, 12, 10).toEpochDay()));
+    }
+}
@@ -0,0 +1,76 @@
+package businessLogic;
+
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedCsvReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @org.junit.jupiter.api.Test
+    void When_FieldsAreQuotedOrPadded_Expect_SameValuesAsCommonsCsv() throws Exception {
+        // Quoted fields, escaped quotes, padding, CRLF line endings and empty lines
+        Path file = tempDir.resolve("export.csv");
+        Files.writeString(file, "﻿Code, \"Name\" ,Price,Date\r\n"
+                + "HM1, \"Rossi, \"\"Mario\"\"\" , 558.8097,1/4/2023\r\n"
+                + "\r\n"
+                + "HM2,Bianchi,-12,12/31/2022\n");
+        try (MappedCsvReader reader = new MappedCsvReader(file.toString(), List.of("date", "code", "name", "price"))) {
+            assertTrue(reader.hasAllColumns());
+            MappedCsvReader.Row row = reader.next();
+            assertEquals(LocalDate.of(2023, 1, 4), row.getDate(0, "MM/dd/yyyy"));
+            assertEquals("HM1", row.getString(1));
+            assertEquals("Rossi, \"Mario\"", row.getString(2));
+            assertEquals(55881, row.getCents(3));
+            assertEquals(2, row.getRecordNumber());
+            MappedCsvReader.Row first = row.copy();
+
+            row = reader.next();
+            assertEquals("HM2", row.getString(1));
+            assertEquals(-12, row.getInt(3));
+            assertEquals(LocalDate.of(2022, 12, 31), row.getDate(0, "MM/dd/yyyy"));
+            // The copy is not affected by the following records
+            assertEquals("HM1", first.getString(1));
+            assertNull(reader.next());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void When_ValuesAreInvalid_Expect_Exception() throws Exception {
+        Path file = tempDir.resolve("export.csv");
+        Files.writeString(file, "Code,Price,Date\nHM1,12a,2023/01/04\nHM2\n");
+        try (MappedCsvReader reader = new MappedCsvReader(file.toString(), List.of("Code", "Price", "Date", "Missing"))) {
+            assertFalse(reader.hasAllColumns());
+            MappedCsvReader.Row row = reader.next();
+            assertThrows(NumberFormatException.class, () -> row.getCents(1));
+            assertThrows(DateTimeParseException.class, () -> row.getDate(2, "MM/dd/yyyy"));
+            assertThrows(IllegalArgumentException.class, () -> row.getString(3));
+            // A record shorter than the header has no value for the last columns
+            MappedCsvReader.Row shortRow = reader.next();
+            assertEquals("HM2", shortRow.getString(0));
+            assertThrows(IllegalArgumentException.class, () -> shortRow.getInt(1));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void When_AmountsAreRead_Expect_ExactCents() throws Exception {
+        // Amounts that have no exact double, rounded to the cent halves away from zero
+        Path file = tempDir.resolve("export.csv");
+        Files.writeString(file, "Price\n0.1\n0.29\n558.8097\n2.675\n-1.005\n12\n.5\n1e2\n");
+        try (MappedCsvReader reader = new MappedCsvReader(file.toString(), List.of("Price"))) {
+            long[] expected = {10, 29, 55881, 268, -101, 1200, 50, 10000};
+            for (long cents : expected) {
+                assertEquals(cents, reader.next().getCents(0));
+            }
+            assertNull(reader.next());
+        }
+    }
+}
@@ -5,8 +5,17 @@ import domainModel.Apartment;
 import domainModel.Customer;
 import domainModel.Reservation;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -69,4 +78,252 @@ class ReservationHandlerTest {
         }
     }
 
-}
\ No newline at end of file
+    @org.junit.jupiter.api.Test
+    void When_AirbnbFilesAreImported_Expect_ReservationsWithoutTemporaryFile() throws Exception {
+        // Test that every matched record is imported with its own date of reservation and that nothing is written to disk
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), CustomerBook.getInstance(new SQLiteCustomerDAO()));
+        Apartment apartment = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
+        new SQLiteApartmentDAO().insert(apartment);
+        reservationHandler.importFromAirbnb(apartment, "test/businessLogic/airbnb_tax_test.csv", "test/businessLogic/reservations_test.csv");
+        assertFalse(new File("temp.csv").exists());
+
+        ArrayList<Reservation> reservations = reservationHandler.getAccommodationReservations(apartment);
+        // Only 6 of the 9 reservations have a record in the taxes file
+        assertEquals(6, reservations.size());
+        Reservation reservation = new SQLiteReservationDAO().findReservationByPeriod(apartment, LocalDate.of(2023, 4, 28), LocalDate.of(2023, 5, 10));
+        assertNotNull(reservation);
+        assertEquals(LocalDate.of(2022, 10, 30), reservation.getDateOfReservation());
+        assertEquals(3, reservation.getNumberOfGuests());
+        assertEquals(115.5, reservation.getCityTaxAmount());
+    }
+
+    @org.junit.jupiter.api.Test
+    void When_AirbnbFilesAreImportedTwice_Expect_NoDoubleCounting() throws Exception {
+        // Test that a second import of the same export updates the reservations instead of adding them again
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), CustomerBook.getInstance(new SQLiteCustomerDAO()));
+        Apartment apartment = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
+        new SQLiteApartmentDAO().insert(apartment);
+        reservationHandler.importFromAirbnb(apartment, "test/businessLogic/airbnb_tax_test.csv", "test/businessLogic/reservations_test.csv");
+        // Without its checkpoint the second import reads every record again
+        new SQLiteImportCheckpointDAO().delete(AirbnbImporter.source(apartment));
+        reservationHandler.importFromAirbnb(apartment, "test/businessLogic/airbnb_tax_test.csv", "test/businessLogic/reservations_test.csv");
+
+        assertEquals(6, reservationHandler.getAccommodationReservations(apartment).size());
+        Reservation reservation = new SQLiteReservationDAO().findReservationByConfirmationCode(apartment, "CodiceAirbnb01");
+        assertNotNull(reservation);
+        assertEquals(LocalDate.of(2023, 4, 28), reservation.getArrivalDate());
+        // The amounts are kept to the cent
+        assertEquals(558.81, reservation.getPrice());
+        assertEquals(115.5, reservation.getCityTaxAmount());
+    }
+
+    @org.junit.jupiter.api.Test
+    void When_AirbnbExportGrows_Expect_OnlyNewRowsAreImported(@TempDir Path directory) throws Exception {
+        // Test that an import resumes after the checkpoint of the previous one when the export was appended to
+        File taxesFile = directory.resolve("taxes.csv").toFile();
+        File reservationsFile = directory.resolve("reservations.csv").toFile();
+        writeExport(taxesFile, reservationsFile, 0, 10);
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), CustomerBook.getInstance(new SQLiteCustomerDAO()));
+        AirbnbImporter importer = new AirbnbImporter(reservationHandler, new SQLiteReservationDAO(), CustomerBook.getInstance(new SQLiteCustomerDAO()), new SQLiteImportCheckpointDAO());
+        Apartment apartment = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
+        new SQLiteApartmentDAO().insert(apartment);
+
+        assertEquals(10, importer.importFiles(apartment, taxesFile.getPath(), reservationsFile.getPath()));
+        // Unchanged files are not read again
+        assertEquals(0, importer.importFiles(apartment, taxesFile.getPath(), reservationsFile.getPath()));
+        // A second payout of CODE9 and 5 new reservations are appended
+        writeExport(taxesFile, reservationsFile, 0, 15);
+        try (PrintWriter taxes = new PrintWriter(new java.io.FileWriter(taxesFile, true))) {
+            taxes.println("CODE9," + LocalDate.of(2050, 1, 10).format(DateTimeFormatter.ofPattern("MM/dd/yyyy")) + ",50,0");
+        }
+        assertEquals(6, importer.importFiles(apartment, taxesFile.getPath(), reservationsFile.getPath()));
+
+        assertEquals(15, reservationHandler.getAccommodationReservations(apartment).size());
+        assertEquals(150, new SQLiteReservationDAO().findReservationByConfirmationCode(apartment, "CODE9").getPrice());
+        assertEquals(LocalDate.of(2050, 1, 10), new SQLiteImportCheckpointDAO().get(AirbnbImporter.source(apartment)).getLastArrivalDate());
+    }
+
+    // Export with the reservations CODE<from> to CODE<to - 1>, one night each from 2050-01-01
+    private static void writeExport(File taxesFile, File reservationsFile, int from, int to) throws Exception {
+        try (PrintWriter taxes = new PrintWriter(taxesFile); PrintWriter reservations = new PrintWriter(reservationsFile)) {
+            taxes.println("Codice di Conferma,Arrivo,Guadagno lordo,Tasse di Soggiorno");
+            reservations.println("Codice di conferma,Nome dell'ospite,Contatti,N. di adulti,N. di bambini,N. di neonati,N. di notti,Prenotata");
+            for (int i = from; i < to; i++) {
+                taxes.println("CODE" + i + "," + LocalDate.of(2050, 1, 1).plusDays(i).format(DateTimeFormatter.ofPattern("MM/dd/yyyy")) + ",100,0");
+                reservations.println("CODE" + i + ",Guest " + i + "," + i + ",2,0,0,1,2049-12-01");
+            }
+        }
+    }
+
+    // Write an export made of the given reservations, each one is {code, arrival, nights, adults, children, guest, phone, booked, price}
+    private static void writeExport(File taxesFile, File reservationsFile, String[]... rows) throws Exception {
+        try (PrintWriter taxes = new PrintWriter(taxesFile); PrintWriter reservations = new PrintWriter(reservationsFile)) {
+            taxes.println("Codice di Conferma,Arrivo,Guadagno lordo,Tasse di Soggiorno");
+            reservations.println("Codice di conferma,Nome dell'ospite,Contatti,N. di adulti,N. di bambini,N. di neonati,N. di notti,Prenotata");
+            for (String[] row : rows) {
+                taxes.println(row[0] + "," + LocalDate.parse(row[1]).format(DateTimeFormatter.ofPattern("MM/dd/yyyy")) + "," + row[8] + ",0");
+                reservations.println(row[0] + "," + row[5] + "," + row[6] + "," + row[3] + "," + row[4] + ",0," + row[2] + "," + row[7]);
+            }
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void When_AirbnbExportChangesAReservation_Expect_EveryFieldIsUpdated(@TempDir Path directory) throws Exception {
+        // Test that importing a changed export moves the reservation and overwrites all of its imported fields
+        File taxesFile = directory.resolve("taxes.csv").toFile();
+        File reservationsFile = directory.resolve("reservations.csv").toFile();
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), CustomerBook.getInstance(new SQLiteCustomerDAO()));
+        Apartment apartment = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
+        new SQLiteApartmentDAO().insert(apartment);
+        writeExport(taxesFile, reservationsFile, new String[]{"CODE0", "2060-03-01", "2", "2", "0", "Guest A", "111", "2060-01-01", "100"});
+        reservationHandler.importFromAirbnb(apartment, taxesFile.getPath(), reservationsFile.getPath());
+
+        writeExport(taxesFile, reservationsFile, new String[]{"CODE0", "2060-03-05", "3", "3", "1", "Guest B", "222", "2060-01-02", "180"});
+        reservationHandler.importFromAirbnb(apartment, taxesFile.getPath(), reservationsFile.getPath());
+
+        assertEquals(1, reservationHandler.getAccommodationReservations(apartment).size());
+        Reservation reservation = new SQLiteReservationDAO().findReservationByConfirmationCode(apartment, "CODE0");
+        assertEquals(LocalDate.of(2060, 3, 5), reservation.getArrivalDate());
+        assertEquals(LocalDate.of(2060, 3, 8), reservation.getDepartureDate());
+        assertEquals(4, reservation.getNumberOfGuests());
+        assertEquals(1, reservation.getNumberOfChildren());
+        assertEquals("Guest B", reservation.getCustomer().getName());
+        assertEquals(LocalDate.of(2060, 1, 2), reservation.getDateOfReservation());
+        assertEquals(180, reservation.getPrice());
+        // The old period is free again
+        assertTrue(new SQLiteReservationDAO().checkAvailability(apartment, LocalDate.of(2060, 3, 1), LocalDate.of(2060, 3, 3)));
+    }
+
+    @org.junit.jupiter.api.Test
+    void When_AirbnbExportMovesAReservationOntoAnother_Expect_Exception(@TempDir Path directory) throws Exception {
+        // Test that a reservation is only moved to a period where the accommodation is available
+        File taxesFile = directory.resolve("taxes.csv").toFile();
+        File reservationsFile = directory.resolve("reservations.csv").toFile();
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), CustomerBook.getInstance(new SQLiteCustomerDAO()));
+        Apartment apartment = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
+        new SQLiteApartmentDAO().insert(apartment);
+        writeExport(taxesFile, reservationsFile,
+                new String[]{"CODE0", "2060-03-01", "2", "2", "0", "Guest A", "111", "2060-01-01", "100"},
+                new String[]{"CODE1", "2060-03-10", "2", "2", "0", "Guest A", "111", "2060-01-01", "100"});
+        reservationHandler.importFromAirbnb(apartment, taxesFile.getPath(), reservationsFile.getPath());
+
+        writeExport(taxesFile, reservationsFile, new String[]{"CODE0", "2060-03-09", "2", "2", "0", "Guest A", "111", "2060-01-01", "100"});
+        try {
+            reservationHandler.importFromAirbnb(apartment, taxesFile.getPath(), reservationsFile.getPath());
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.getMessage().contains("CODE0 cannot be moved"));
+        }
+        // Moving a reservation within its own period is not a conflict
+        writeExport(taxesFile, reservationsFile, new String[]{"CODE0", "2060-03-02", "2", "2", "0", "Guest A", "111", "2060-01-01", "100"});
+        reservationHandler.importFromAirbnb(apartment, taxesFile.getPath(), reservationsFile.getPath());
+        assertEquals(LocalDate.of(2060, 3, 2), new SQLiteReservationDAO().findReservationByConfirmationCode(apartment, "CODE0").getArrivalDate());
+    }
+
+    @org.junit.jupiter.api.Test
+    void When_ReservationWasImportedWithoutCode_Expect_NoError(@TempDir Path directory) throws Exception {
+        // Test that a reservation stored before the confirmation codes is found by its period without a false availability error
+        File taxesFile = directory.resolve("taxes.csv").toFile();
+        File reservationsFile = directory.resolve("reservations.csv").toFile();
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), CustomerBook.getInstance(new SQLiteCustomerDAO()));
+        CustomerBook customerBook = CustomerBook.getInstance(new SQLiteCustomerDAO());
+        Apartment apartment = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
+        new SQLiteApartmentDAO().insert(apartment);
+        assertNotNull(reservationHandler.addReservation(apartment, LocalDate.of(2060, 3, 1), LocalDate.of(2060, 3, 3), 2, 0, 0, customerBook.getOrCreate("Guest A", "", "111"), 90, 0));
+        writeExport(taxesFile, reservationsFile, new String[]{"CODE0", "2060-03-01", "2", "2", "0", "Guest A", "111", "2060-01-01", "100"});
+
+        PrintStream err = System.err;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(output));
+        try {
+            reservationHandler.importFromAirbnb(apartment, taxesFile.getPath(), reservationsFile.getPath());
+        } finally {
+            System.setErr(err);
+        }
+        assertFalse(output.toString().contains("ERROR"));
+        assertEquals(1, reservationHandler.getAccommodationReservations(apartment).size());
+        assertEquals(100, new SQLiteReservationDAO().findReservationByConfirmationCode(apartment, "CODE0").getPrice());
+    }
+
+    @org.junit.jupiter.api.Test
+    void When_AirbnbExportHasSeveralListings_Expect_RowsAreRoutedToTheirAccommodation(@TempDir Path directory) throws Exception {
+        // Test that one pass over the export fills every mapped accommodation and skips the unmapped listings
+        Apartment first = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
+        Apartment second = new Apartment(-1, "Apartment 2", 4, 2, 1, 1, 2);
+        new SQLiteApartmentDAO().insert(first);
+        new SQLiteApartmentDAO().insert(second);
+        File mappingFile = directory.resolve("listings.csv").toFile();
+        try (PrintWriter mapping = new PrintWriter(mappingFile)) {
+            mapping.println("Annuncio,Accommodation ID");
+            mapping.println("Listing A," + first.getId());
+            mapping.println("\"Listing B, sea view\"," + second.getId());
+        }
+        File taxesFile = directory.resolve("taxes.csv").toFile();
+        File reservationsFile = directory.resolve("reservations.csv").toFile();
+        String[] listings = {"Listing A", "\"Listing B, sea view\"", "Listing C"};
+        try (PrintWriter taxes = new PrintWriter(taxesFile); PrintWriter reservations = new PrintWriter(reservationsFile)) {
+            taxes.println("Codice di Conferma,Arrivo,Guadagno lordo,Tasse di Soggiorno");
+            reservations.println("Codice di conferma,Nome dell'ospite,Contatti,N. di adulti,N. di bambini,N. di neonati,N. di notti,Prenotata,Annuncio");
+            for (int i = 0; i < 1800; i++) {
+                // Each listing gets every third night
+                LocalDate arrival = LocalDate.of(2060, 1, 1).plusDays(i / 3);
+                taxes.println("ROUTED" + i + "," + arrival.format(DateTimeFormatter.ofPattern("MM/dd/yyyy")) + ",100,0");
+                reservations.println("ROUTED" + i + ",Guest " + i + "," + i + ",2,0,0,1,2059-12-01," + listings[i % 3]);
+            }
+        }
+        AccommodationHandler accommodationHandler = AccommodationHandler.getInstance(new SQLiteApartmentDAO(), new SQLiteRoomDAO());
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), CustomerBook.getInstance(new SQLiteCustomerDAO()));
+        reservationHandler.importFromAirbnb(accommodationHandler.getListingAccommodations(mappingFile.getPath()), taxesFile.getPath(), reservationsFile.getPath());
+
+        assertEquals(600, reservationHandler.getAccommodationReservations(first).size());
+        assertEquals(600, reservationHandler.getAccommodationReservations(second).size());
+        assertNotNull(new SQLiteReservationDAO().findReservationByConfirmationCode(second, "ROUTED1"));
+        assertNull(new SQLiteReservationDAO().findReservationByConfirmationCode(first, "ROUTED1"));
+
+        // The same export routed to other accommodations is not taken for one already imported
+        Apartment third = new Apartment(-1, "Apartment 3", 4, 2, 1, 1, 2);
+        new SQLiteApartmentDAO().insert(third);
+        try (PrintWriter mapping = new PrintWriter(mappingFile)) {
+            mapping.println("Annuncio,Accommodation ID");
+            mapping.println("Listing A," + third.getId());
+        }
+        reservationHandler.importFromAirbnb(accommodationHandler.getListingAccommodations(mappingFile.getPath()), taxesFile.getPath(), reservationsFile.getPath());
+        assertEquals(600, reservationHandler.getAccommodationReservations(third).size());
+        // A listing name holding the separator does not make two mappings look alike
+        assertNotEquals(RoutedAirbnbImporter.source(Map.of("A, B", first)), RoutedAirbnbImporter.source(Map.of("A", first, "B", first)));
+    }
+
+    @org.junit.jupiter.api.Test
+    void When_AirbnbFilesAreImportedInParallel_Expect_EveryRowIsWritten(@TempDir Path directory) throws Exception {
+        // Test the multi-threaded import on an export larger than the queues and the batches
+        File taxesFile = directory.resolve("taxes.csv").toFile();
+        File reservationsFile = directory.resolve("reservations.csv").toFile();
+        int rows = 3000;
+        // test.db is kept between runs, the guests of each run must not match the ones created by the previous runs
+        long run = System.currentTimeMillis();
+        try (PrintWriter taxes = new PrintWriter(taxesFile); PrintWriter reservations = new PrintWriter(reservationsFile)) {
+            taxes.println("Codice di Conferma,Arrivo,Guadagno lordo,Tasse di Soggiorno");
+            reservations.println("Codice di conferma,Nome dell'ospite,Contatti,N. di adulti,N. di bambini,N. di neonati,N. di notti,Prenotata");
+            LocalDate arrival = LocalDate.of(2040, 1, 1);
+            for (int i = 0; i < rows; i++) {
+                taxes.println("CODE" + i + "," + arrival.plusDays(i).format(DateTimeFormatter.ofPattern("MM/dd/yyyy")) + ",100,5.5");
+                // Every guest comes back ten times
+                reservations.println("CODE" + i + ",Guest " + run + " " + (i % (rows / 10)) + "," + run + (i % (rows / 10)) + ",2,0,0,1,2039-12-01");
+            }
+        }
+        ReservationHandler reservationHandler = ReservationHandler.getInstance(new SQLiteReservationDAO(), CustomerBook.getInstance(new SQLiteCustomerDAO()));
+        Apartment apartment = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
+        new SQLiteApartmentDAO().insert(apartment);
+        int customersBefore = CustomerBook.getInstance(new SQLiteCustomerDAO()).getAllCustomers().size();
+
+        AirbnbImporter importer = new AirbnbImporter(reservationHandler, new SQLiteReservationDAO(), CustomerBook.getInstance(new SQLiteCustomerDAO()), new SQLiteImportCheckpointDAO());
+        ParallelAirbnbImporter parallelImporter = new ParallelAirbnbImporter(importer, CustomerBook.getInstance(new SQLiteCustomerDAO()), 3);
+        assertEquals(rows, parallelImporter.importFiles(apartment, taxesFile.getPath(), reservationsFile.getPath()));
+
+        assertEquals(rows, reservationHandler.getAccommodationReservations(apartment).size());
+        assertEquals(rows / 10, CustomerBook.getInstance(new SQLiteCustomerDAO()).getAllCustomers().size() - customersBefore);
+        for (ParallelAirbnbImporter.Stage stage : parallelImporter.getStages()) {
+            assertEquals(rows, stage.getProcessed());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package dao;
+
+import domainModel.Apartment;
+import domainModel.Customer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseTest {
+
+    @BeforeAll
+    static void initDb() throws Exception {
+        // Set up database
+        Database.setDatabase("test.db");
+        Database.initDatabase();
+    }
+
+    @AfterEach
+    void restorePool() {
+        // Go back to the default pool settings
+        Database.setPoolSize(4);
+        Database.setBorrowTimeout(30_000);
+    }
+
+    @Test
+    void When_ConnectionIsClosed_Expect_ItIsReturnedToThePool() throws Exception {
+        ConnectionPool pool = new ConnectionPool("jdbc:sqlite:test.db", 2, 60_000, 1_000);
+        Connection connection = pool.borrow();
+        assertEquals(0, pool.getIdleCount());
+        connection.close();
+        // The physical connection is kept open and reused
+        assertTrue(connection.isClosed());
+        assertEquals(1, pool.getIdleCount());
+        Connection reused = pool.borrow();
+        assertEquals(0, pool.getIdleCount());
+        reused.close();
+        pool.shutdown();
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    void When_PoolIsExhausted_Expect_Exception() throws Exception {
+        Database.setPoolSize(1);
+        Database.setBorrowTimeout(100);
+        Connection connection = Database.getConnection();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Another thread has to wait for the only connection
+            Future<Connection> other = executor.submit(() -> Database.getConnection());
+            ExecutionException e = assertThrows(ExecutionException.class, other::get);
+            assertEquals("ERROR: Timed out waiting for a database connection (pool size 1).", e.getCause().getMessage());
+        } finally {
+            Database.closeConnection(connection);
+            executor.shutdown();
+        }
+        // Once the connection is returned it can be borrowed again
+        Connection again = Database.getConnection();
+        assertFalse(again.isClosed());
+        Database.closeConnection(again);
+    }
+
+    @Test
+    void When_ThreadBorrowsTwice_Expect_ItSharesItsConnection() throws Exception {
+        Database.setPoolSize(1);
+        Database.setBorrowTimeout(100);
+        Connection connection = Database.getConnection();
+        try {
+            // A DAO called while the thread holds a connection does not wait for a second one
+            Connection nested = Database.getConnection();
+            assertFalse(nested.isClosed());
+            Database.closeConnection(nested);
+            assertTrue(nested.isClosed());
+            // The outer connection is still usable, and so is a transaction opened meanwhile
+            assertNotNull(new SQLiteApartmentDAO().getAll());
+            Database.inTransaction(() -> new SQLiteApartmentDAO().getAll());
+            assertTrue(connection.getAutoCommit());
+            assertFalse(connection.isClosed());
+        } finally {
+            Database.closeConnection(connection);
+        }
+        // Once the last proxy is closed the connection goes back to the pool, any thread can borrow it
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                Database.closeConnection(Database.getConnection());
+                return null;
+            }).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void When_StatementFails_Expect_ConnectionIsReturnedToThePool() throws Exception {
+        Database.setPoolSize(1);
+        Database.setBorrowTimeout(100);
+        CustomerDAO customerDAO = new SQLiteCustomerDAO();
+        Customer customer = new Customer(-1, "Mario Rossi", "", "1");
+        customer.setIdentityKey("pool test " + System.nanoTime());
+        customerDAO.insert(customer);
+        // Every insert breaks the unique CustomerIdentity index, the only connection must still be given back
+        for (int i = 0; i < 3; i++) {
+            Customer duplicate = new Customer(-1, "Mario Rossi", "", "1");
+            duplicate.setIdentityKey(customer.getIdentityKey());
+            assertThrows(SQLException.class, () -> customerDAO.insert(duplicate));
+        }
+        assertNotNull(customerDAO.get(customer.getId()));
+    }
+
+    @Test
+    void When_TransactionNeedsIdWhileBlockIsReserved_Expect_NoWait() throws Exception {
+        // The Customer block is ready, while the next LocalTax IDs need a new block
+        IDGenerator.getNextId("Customer");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Database.inTransaction(() -> {
+                // Take the write lock of the database
+                new SQLiteApartmentDAO().insert(new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2));
+                Future<Integer> reserved = executor.submit(() -> IDGenerator.getNextIds("LocalTax", 1000));
+                // Let the other thread start waiting for the write lock
+                Thread.sleep(200);
+                assertTimeout(Duration.ofSeconds(1), () -> IDGenerator.getNextId("Customer"));
+                assertFalse(reserved.isDone());
+                return null;
+            });
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void When_IdleTimeoutExpires_Expect_ConnectionIsEvicted() throws Exception {
+        ConnectionPool pool = new ConnectionPool("jdbc:sqlite:test.db", 2, 0, 1_000);
+        pool.borrow().close();
+        // With no idle timeout the connection is closed as soon as it is returned
+        assertEquals(0, pool.getIdleCount());
+        pool.shutdown();
+    }
+
+    @Test
+    void When_TransactionSucceeds_Expect_AllRowsAreCommitted() throws Exception {
+        ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
+        Apartment first = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
+        Apartment second = new Apartment(-1, "Apartment 2", 4, 2, 1, 1, 2);
+        Database.inTransaction(() -> {
+            apartmentDAO.insert(first);
+            apartmentDAO.insert(second);
+            // Both inserts see the same connection
+            assertTrue(Database.isInTransaction());
+            return null;
+        });
+        assertFalse(Database.isInTransaction());
+        assertNotNull(apartmentDAO.get(first.getId()));
+        assertNotNull(apartmentDAO.get(second.getId()));
+    }
+
+    @Test
+    void When_TransactionThrows_Expect_RollBack() throws Exception {
+        ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
+        Apartment apartment = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
+        try {
+            Database.inTransaction(() -> {
+                apartmentDAO.insert(apartment);
+                throw new Exception("ERROR: Test failure.");
+            });
+            fail();
+        } catch (Exception e) {
+            assertEquals("ERROR: Test failure.", e.getMessage());
+        }
+        assertNull(apartmentDAO.get(apartment.getId()));
+    }
+
+    @Test
+    void When_DatabaseIsInitializedAgain_Expect_DataIsKept() throws Exception {
+        ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
+        Apartment apartment = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
+        apartmentDAO.insert(apartment);
+        // The schema is already up to date, so no migration is applied again
+        assertEquals(0, Database.initDatabase());
+        assertTrue(Database.getSchemaVersion() >= 2);
+        assertNotNull(apartmentDAO.get(apartment.getId()));
+    }
+}
@@ -0,0 +1,65 @@
+package dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntervalTreeTest {
+
+    @Test
+    void testOverlaps() {
+        IntervalTree tree = new IntervalTree();
+        tree.insert(1, 10, 20);
+        tree.insert(2, 30, 35);
+        // The departure day is free for the next arrival
+        assertFalse(tree.overlaps(20, 30));
+        assertFalse(tree.overlaps(0, 10));
+        assertTrue(tree.overlaps(19, 21));
+        assertTrue(tree.overlaps(5, 40));
+        assertTrue(tree.overlaps(31, 32));
+    }
+
+    @Test
+    void When_IntervalIsRemoved_Expect_PeriodIsFree() {
+        IntervalTree tree = new IntervalTree();
+        tree.insert(1, 10, 20);
+        assertTrue(tree.remove(1, 10));
+        assertFalse(tree.remove(1, 10));
+        assertEquals(0, tree.size());
+        assertFalse(tree.overlaps(10, 20));
+    }
+
+    @Test
+    void When_ManyIntervals_Expect_SameResultsAsLinearScan() {
+        // Compare the tree with a brute force scan on random intervals, removing some of them along the way
+        Random random = new Random(42);
+        IntervalTree tree = new IntervalTree();
+        ArrayList<long[]> intervals = new ArrayList<>();
+        for (int id = 0; id < 2000; id++) {
+            long start = random.nextInt(5000);
+            long end = start + 1 + random.nextInt(20);
+            tree.insert(id, start, end);
+            intervals.add(new long[]{id, start, end});
+            if (random.nextInt(4) == 0) {
+                long[] removed = intervals.remove(random.nextInt(intervals.size()));
+                assertTrue(tree.remove((int) removed[0], removed[1]));
+            }
+        }
+        assertEquals(intervals.size(), tree.size());
+        for (int i = 0; i < 2000; i++) {
+            long start = random.nextInt(5100);
+            long end = start + 1 + random.nextInt(10);
+            boolean expected = false;
+            for (long[] interval : intervals) {
+                if (interval[1] < end && interval[2] > start) {
+                    expected = true;
+                    break;
+                }
+            }
+            assertEquals(expected, tree.overlaps(start, end));
+        }
+    }
+}
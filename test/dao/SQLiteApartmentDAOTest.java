@@ -5,6 +5,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 
 import java.sql.Connection;
+import java.util.ArrayList;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -21,6 +22,7 @@ class SQLiteApartmentDAOTest {
     void init() throws Exception {
         Connection connection = Database.getConnection();
         connection.prepareStatement("DELETE FROM Apartment").executeUpdate();
+        connection.close();
 
         ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
         Apartment apartment = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
@@ -36,6 +38,18 @@ class SQLiteApartmentDAOTest {
         assertEquals(currentId + 1, nextId);
     }
 
+    @org.junit.jupiter.api.Test
+    void When_IDGeneratorIsRestarted_Expect_IdsAreNotReused() throws Exception {
+        // Test that the IDs reserved before a restart are not handed out again
+        ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
+        int currentId = apartmentDAO.getNextId();
+        IDGenerator.reset();
+        int nextId = apartmentDAO.getNextId();
+        assertTrue(nextId > currentId);
+        // Rooms share the same IDs as apartments
+        assertTrue(new SQLiteRoomDAO().getNextId() > nextId);
+    }
+
     @org.junit.jupiter.api.Test
     void testGet() throws Exception {
         // Test that the apartment retrieved is the same as the one inserted using the init() method
@@ -111,6 +125,34 @@ class SQLiteApartmentDAOTest {
         }
     }
 
+    @org.junit.jupiter.api.Test
+    void testInsertAllUpdateAllDeleteAll() throws Exception {
+        // Test that a batch of apartments gets consecutive IDs and is updated and deleted as a whole
+        ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
+        ArrayList<Apartment> apartments = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            apartments.add(new Apartment(-1, "Apartment " + i, 4, 2, 1, 1, 2));
+        }
+        apartmentDAO.insertAll(apartments);
+        for (int i = 1; i < apartments.size(); i++) {
+            assertEquals(apartments.get(i - 1).getId() + 1, apartments.get(i).getId());
+        }
+        assertEquals(121, apartmentDAO.getAll().size());
+
+        for (Apartment apartment : apartments) {
+            apartment.setDescription("Updated");
+        }
+        apartmentDAO.updateAll(apartments);
+        assertEquals("Updated", apartmentDAO.get(apartments.get(60).getId()).getDescription());
+
+        ArrayList<Integer> ids = new ArrayList<>();
+        for (Apartment apartment : apartments) {
+            ids.add(apartment.getId());
+        }
+        assertEquals(120, apartmentDAO.deleteAll(ids));
+        assertEquals(1, apartmentDAO.getAll().size());
+    }
+
     @org.junit.jupiter.api.Test
     void testGetAll() {
         // Test that the list of apartments retrieved is the same as the one inserted using the init() method
@@ -1,11 +1,17 @@
 package dao;
 
+import domainModel.Accommodation;
 import domainModel.Apartment;
 import domainModel.Customer;
+import domainModel.LocalTax;
 import domainModel.Reservation;
+import domainModel.Room;
 import org.junit.jupiter.api.Test;
 
+import java.sql.Connection;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -49,6 +55,118 @@ class SQLiteReservationDAOTest {
         assertNotNull(reservation);
     }
 
+    @Test
+    void testGetReservationWithRoomAndCustomer() throws Exception {
+        // Test that a reservation is read back with its room and customer in a single query
+        RoomDAO roomDAO = new SQLiteRoomDAO();
+        CustomerDAO customerDAO = new SQLiteCustomerDAO();
+        ReservationDAO reservationDAO = new SQLiteReservationDAO();
+        Room room = new Room(-1, "Room 1", 2, true, false);
+        roomDAO.insert(room);
+        Customer customer = new Customer(-1, "Jane", "Baker St.", "123");
+        customerDAO.insert(customer);
+        Reservation reservation = new Reservation(-1, room, LocalDate.of(2030, 2, 1), LocalDate.of(2030, 2, 3), 2, 0, 0, customer, 100, LocalDate.now(), 4);
+        reservationDAO.insert(reservation);
+
+        Reservation retrieved = reservationDAO.get(reservation.getId());
+        assertInstanceOf(Room.class, retrieved.getAccommodation());
+        assertEquals(room.getId(), retrieved.getAccommodation().getId());
+        assertTrue(((Room) retrieved.getAccommodation()).getHasPrivateBathroom());
+        assertEquals(customer.getId(), retrieved.getCustomer().getId());
+        assertEquals("Jane", retrieved.getCustomer().getName());
+        assertEquals(1, reservationDAO.getAccommodationReservations(room.getId()).size());
+    }
+
+    @Test
+    void testGetAvailableAccommodations() throws Exception {
+        // Test that apartments and rooms booked in the period are left out of the search
+        ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
+        RoomDAO roomDAO = new SQLiteRoomDAO();
+        ReservationDAO reservationDAO = new SQLiteReservationDAO();
+        Apartment bookedApartment = new Apartment(-1, "Booked", 4, 2, 1, 1, 2);
+        Apartment freeApartment = new Apartment(-1, "Free", 4, 2, 1, 1, 2);
+        Room freeRoom = new Room(-1, "Free room", 4, true, true);
+        apartmentDAO.insert(bookedApartment);
+        apartmentDAO.insert(freeApartment);
+        roomDAO.insert(freeRoom);
+        reservationDAO.insert(new Reservation(-1, bookedApartment, LocalDate.of(2031, 3, 1), LocalDate.of(2031, 3, 10), 2, 0, 0, new Customer(-1, "John", "", ""), 2, LocalDate.now(), 1));
+
+        ArrayList<Integer> availableIds = new ArrayList<>();
+        for (Accommodation accommodation : reservationDAO.getAvailableAccommodations(LocalDate.of(2031, 3, 5), LocalDate.of(2031, 3, 12), 3)) {
+            availableIds.add(accommodation.getId());
+        }
+        assertFalse(availableIds.contains(bookedApartment.getId()));
+        assertTrue(availableIds.contains(freeApartment.getId()));
+        assertTrue(availableIds.contains(freeRoom.getId()));
+        // The departure day is free for a new arrival
+        assertTrue(reservationDAO.getAvailableApartments(LocalDate.of(2031, 3, 10), LocalDate.of(2031, 3, 12), 3).stream().anyMatch(apartment -> apartment.getId() == bookedApartment.getId()));
+        assertTrue(reservationDAO.getAvailableRooms(LocalDate.of(2031, 3, 5), LocalDate.of(2031, 3, 12), 3).stream().anyMatch(room -> room.getId() == freeRoom.getId()));
+    }
+
+    @Test
+    void When_ReservationsAreStreamed_Expect_SameRowsAsList() throws Exception {
+        // Test that the stream reads the same reservations as the list and gives its connection back when closed
+        ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
+        ReservationDAO reservationDAO = new SQLiteReservationDAO();
+        Apartment apartment = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
+        apartmentDAO.insert(apartment);
+        for (int day = 1; day <= 20; day += 2) {
+            reservationDAO.insert(new Reservation(-1, apartment, LocalDate.of(2031, 3, day), LocalDate.of(2031, 3, day + 1), 2, 0, 0, new Customer(-1, "John", "", ""), 2, LocalDate.now(), 1));
+        }
+        ArrayList<Reservation> reservations = reservationDAO.getAccommodationMonthReservations(apartment.getId(), 3, 2031);
+        assertEquals(10, reservations.size());
+        try (Stream<Reservation> stream = reservationDAO.streamAccommodationMonthReservations(apartment.getId(), 3, 2031)) {
+            assertEquals(reservations.stream().map(Reservation::getId).toList(), stream.map(Reservation::getId).toList());
+        }
+        assertEquals(reservationDAO.getAll().size(), reservationDAO.stream().count());
+
+        Database.setPoolSize(1);
+        Database.setBorrowTimeout(1_000);
+        try {
+            // Only the first row is read, closing the stream releases the only connection of the pool
+            try (Stream<Reservation> stream = reservationDAO.stream()) {
+                assertTrue(stream.findFirst().isPresent());
+            }
+            Connection connection = Database.getConnection();
+            Database.closeConnection(connection);
+        } finally {
+            Database.setPoolSize(4);
+            Database.setBorrowTimeout(30_000);
+        }
+    }
+
+    @Test
+    void When_IntervalIndexIsEnabled_Expect_SameOverlapResults() throws Exception {
+        // Test that the overlap queries give the same answers when they go through the R*Trees
+        ApartmentDAO apartmentDAO = new SQLiteApartmentDAO();
+        ReservationDAO reservationDAO = new SQLiteReservationDAO();
+        LocalTaxDAO localTaxDAO = new SQLiteLocalTaxDAO();
+        Apartment apartment = new Apartment(-1, "Apartment 1", 4, 2, 1, 1, 2);
+        apartmentDAO.insert(apartment);
+        // Rows written before the mode is enabled are indexed too
+        reservationDAO.insert(new Reservation(-1, apartment, LocalDate.of(2032, 5, 28), LocalDate.of(2032, 6, 3), 2, 0, 0, new Customer(-1, "John", "", ""), 2, LocalDate.now(), 1));
+        try {
+            Database.enableIntervalIndex();
+            assertTrue(Database.isIntervalIndexEnabled());
+            reservationDAO.insert(new Reservation(-1, apartment, LocalDate.of(2032, 6, 10), LocalDate.of(2032, 6, 12), 2, 0, 0, new Customer(-1, "John", "", ""), 2, LocalDate.now(), 1));
+            localTaxDAO.insert(new LocalTax("Interval", 2, "adults", 7, LocalDate.of(2032, 6, 1), LocalDate.of(2032, 6, 30)));
+
+            assertFalse(reservationDAO.checkAvailability(apartment, LocalDate.of(2032, 6, 2), LocalDate.of(2032, 6, 4)));
+            assertTrue(reservationDAO.checkAvailability(apartment, LocalDate.of(2032, 6, 3), LocalDate.of(2032, 6, 10)));
+            assertFalse(reservationDAO.checkAvailability(apartment, LocalDate.of(2032, 6, 11), LocalDate.of(2032, 6, 20)));
+            assertEquals(2, reservationDAO.getAccommodationMonthReservations(apartment.getId(), 6, 2032).size());
+            assertFalse(reservationDAO.getAvailableApartments(LocalDate.of(2032, 6, 1), LocalDate.of(2032, 6, 2), 1).stream().anyMatch(available -> available.getId() == apartment.getId()));
+            assertTrue(reservationDAO.getAvailableApartments(LocalDate.of(2032, 6, 4), LocalDate.of(2032, 6, 10), 1).stream().anyMatch(available -> available.getId() == apartment.getId()));
+            // The last day of a local tax is still in force
+            assertTrue(localTaxDAO.getLocalTaxesByTarget("adults", LocalDate.of(2032, 6, 30), LocalDate.of(2032, 7, 5)).stream().anyMatch(localTax -> localTax.getDescription().equals("Interval")));
+            assertFalse(localTaxDAO.getLocalTaxesByTarget("adults", LocalDate.of(2032, 7, 1), LocalDate.of(2032, 7, 5)).stream().anyMatch(localTax -> localTax.getDescription().equals("Interval")));
+        } finally {
+            Database.disableIntervalIndex();
+        }
+        assertFalse(Database.isIntervalIndexEnabled());
+        assertFalse(reservationDAO.checkAvailability(apartment, LocalDate.of(2032, 6, 11), LocalDate.of(2032, 6, 20)));
+    }
+
     @org.junit.jupiter.api.Test
     void When_CustomerIsDeleted_Expect_AllReservationsForThatCustomerAreDeleted() throws Exception {
         // Test that all reservations for the customer are deleted when the customer is deleted
@@ -2,6 +2,8 @@ package dao;
 
 import domainModel.Room;
 
+import java.sql.Connection;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class SQLiteRoomDAOTest {
@@ -18,6 +20,10 @@ class SQLiteRoomDAOTest {
         // Set up database
         Database.setDatabase("test.db");
         Database.initDatabase();
+        // The schema is kept between runs, so start from an empty Room table
+        Connection connection = Database.getConnection();
+        connection.createStatement().executeUpdate("DELETE FROM Room");
+        connection.close();
 
         RoomDAO roomDAO = new SQLiteRoomDAO();
         Room room = new Room(-1, "Room 1", 2);